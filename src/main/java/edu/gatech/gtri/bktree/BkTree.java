@@ -16,8 +16,12 @@
 
 package edu.gatech.gtri.bktree;
 
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
+import static java.lang.String.format;
+
 /**
  * A <a href="http://en.wikipedia.org/wiki/BK-tree">BK-tree</a>.
  *
@@ -42,5 +46,40 @@ public interface BkTree<E> {
 
         /** Returns the child node at the given distance, if any. */
         @Nullable Node<E> getChildNode(int distance);
+
+        /** Returns an unmodifiable view of the child nodes, keyed by their distance from this node. */
+        Map<Integer, ? extends Node<E>> getChildNodes();
+
+        /**
+         * Returns the number of elements held in this node's bucket besides
+         * its own element, which is zero for nodes without a bucket.
+         *
+         * <p>Bucketed elements belong to no child node, so code that walks a
+         * tree must visit them as well as the child nodes.
+         *
+         * @see BucketedBkTree
+         */
+        default int getBucketLength() {
+            return 0;
+        }
+
+        /**
+         * Returns the element at the given index in this node's bucket.
+         *
+         * @param index non-negative index less than {@link #getBucketLength()}
+         */
+        default E getBucketElement(int index) {
+            throw new IndexOutOfBoundsException(format("index (%d) must be less than bucket length (0)", index));
+        }
+
+        /**
+         * Returns the distance between this node's element and the element at
+         * the given index in its bucket.
+         *
+         * @param index non-negative index less than {@link #getBucketLength()}
+         */
+        default int getBucketDistance(int index) {
+            throw new IndexOutOfBoundsException(format("index (%d) must be less than bucket length (0)", index));
+        }
     }
 }
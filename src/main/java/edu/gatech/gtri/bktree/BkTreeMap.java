@@ -0,0 +1,316 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import static java.lang.String.format;
+
+/**
+ * A mutable {@linkplain BkTree BK-tree} of keys, each of which is associated
+ * with one or more values stored in the key's node.
+ *
+ * <p>Keys' nodes are found through a hash index rather than by walking the
+ * tree, so putting a value for a key that's already present just appends the
+ * value to the key's node. The index refers to the same key objects as the
+ * tree, so keys aren't copied.
+ *
+ * <p>{@linkplain #search Searches} walk the tree with a {@link BkTreeSearcher},
+ * which may be given a {@linkplain PivotTable pivot table} or
+ * {@linkplain QueryCostEstimator cost estimator} built for the map, and
+ * return each matching key along with its values, found through the index.
+ *
+ * <p>Mutating operations are <em>not</em> thread-safe.
+ *
+ * @param <K> type of keys in this map
+ * @param <V> type of values in this map
+ */
+public final class BkTreeMap<K, V> implements BkTree<K>, ModificationCounted {
+
+    private final Metric<? super K> metric;
+    private final Map<K, MapNode<K, V>> nodesByKey = new HashMap<>();
+    @Nullable MapNode<K, V> root;
+    private int modificationCount;
+
+    public BkTreeMap(Metric<? super K> metric) {
+        if (metric == null) throw new NullPointerException();
+        this.metric = metric;
+    }
+
+    /**
+     * Associates the given value with the given key, in addition to any
+     * values already associated with it.
+     *
+     * @param key key
+     * @param value value
+     */
+    public void put(K key, V value) {
+        if (key == null) throw new NullPointerException();
+        if (value == null) throw new NullPointerException();
+
+        MapNode<K, V> node = nodesByKey.get(key);
+        if (node == null) {
+            node = insert(key);
+            nodesByKey.put(key, node);
+            ++modificationCount;
+        }
+        node.values.add(value);
+    }
+
+    /** Inserts a new node for the given key, which must not already be present. */
+    private MapNode<K, V> insert(K key) {
+        MapNode<K, V> node = new MapNode<>(key);
+
+        if (root == null) {
+            root = node;
+        } else {
+            MapNode<K, V> parent = root;
+            while (true) {
+                int distance = distance(parent.key, key);
+
+                MapNode<K, V> child = parent.childrenByDistance.get(distance);
+                if (child == null) {
+                    parent.childrenByDistance.put(distance, node);
+                    break;
+                }
+                parent = child;
+            }
+        }
+
+        return node;
+    }
+
+    private int distance(K x, K y) {
+        int distance = metric.distance(x, y);
+        if (distance < 0) {
+            throw new IllegalMetricException(
+                format("negative distance (%d) defined between keys `%s` and `%s`", distance, x, y));
+        }
+        return distance;
+    }
+
+    /**
+     * Returns the values associated with the given key.
+     *
+     * @param key key
+     * @return unmodifiable view of the key's values in the order they were
+     * put, or an empty list if the key is not present
+     */
+    public List<V> get(K key) {
+        if (key == null) throw new NullPointerException();
+        MapNode<K, V> node = nodesByKey.get(key);
+        return node == null ? Collections.<V>emptyList() : node.getValues();
+    }
+
+    /** Returns whether the given key is present in this map. */
+    public boolean containsKey(K key) {
+        if (key == null) throw new NullPointerException();
+        return nodesByKey.containsKey(key);
+    }
+
+    /** Returns the number of distinct keys in this map. */
+    public int size() {
+        return nodesByKey.size();
+    }
+
+    /**
+     * Searches this map for keys whose distance from the given query is less
+     * than or equal to the given maximum distance.
+     *
+     * @param query query against which to match keys
+     * @param maxDistance non-negative maximum distance of matching keys from query
+     * @return matching keys and their values in no particular order
+     */
+    public Set<Match<K, V>> search(K query, int maxDistance) {
+        return search(new BkTreeSearcher<>(this), query, maxDistance);
+    }
+
+    /**
+     * Searches this map with the given searcher, which may use a
+     * {@linkplain PivotTable pivot table} or {@linkplain QueryCostEstimator
+     * cost estimator} built for this map, and looks up the values of each
+     * matching key.
+     *
+     * @param searcher searcher of this map
+     * @param query query against which to match keys
+     * @param maxDistance non-negative maximum distance of matching keys from query
+     * @return matching keys and their values in no particular order
+     */
+    public Set<Match<K, V>> search(BkTreeSearcher<K> searcher, K query, int maxDistance) {
+        if (searcher == null) throw new NullPointerException();
+        if (query == null) throw new NullPointerException();
+        if (maxDistance < 0) throw new IllegalArgumentException("maxDistance must be non-negative");
+        if (searcher.getTree() != this) throw new IllegalArgumentException("searcher must search this map");
+
+        Set<Match<K, V>> matches = new HashSet<>();
+        if (root == null) return matches;
+
+        for (BkTreeSearcher.Match<? extends K> match : searcher.search(query, maxDistance)) {
+            K key = match.getMatch();
+            matches.add(new Match<>(key, nodesByKey.get(key).getValues(), match.getDistance()));
+        }
+
+        return matches;
+    }
+
+    @Override
+    public int modificationCount() {
+        return modificationCount;
+    }
+
+    @Override
+    public Metric<? super K> getMetric() {
+        return metric;
+    }
+
+    @Override
+    public @Nullable Node<K> getRoot() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("BkTreeMap{");
+        sb.append("metric=").append(metric);
+        sb.append(", root=").append(root);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    static final class MapNode<K, V> implements Node<K> {
+        final K key;
+        final List<V> values = new ArrayList<>(1);
+        final Map<Integer, MapNode<K, V>> childrenByDistance = new HashMap<>();
+
+        MapNode(K key) {
+            this.key = key;
+        }
+
+        List<V> getValues() {
+            return Collections.unmodifiableList(values);
+        }
+
+        @Override
+        public K getElement() {
+            return key;
+        }
+
+        @Override
+        public @Nullable Node<K> getChildNode(int distance) {
+            return childrenByDistance.get(distance);
+        }
+
+        @Override
+        public Map<Integer, ? extends Node<K>> getChildNodes() {
+            return Collections.unmodifiableMap(childrenByDistance);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("MapNode{");
+            sb.append("key=").append(key);
+            sb.append(", values=").append(values);
+            sb.append(", childrenByDistance=").append(childrenByDistance);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A key matching a query, along with its values.
+     *
+     * <p>Matches are equal if their keys and distances are, regardless of
+     * their values, which may change as values are put in the map.
+     *
+     * @param <K> type of matching key
+     * @param <V> type of the key's values
+     */
+    public static final class Match<K, V> {
+
+        private final K key;
+        private final List<V> values;
+        private final int distance;
+
+        /**
+         * @param key matching key
+         * @param values values associated with the matching key
+         * @param distance distance of the matching key from the search query
+         */
+        public Match(K key, List<V> values, int distance) {
+            if (key == null) throw new NullPointerException();
+            if (values == null) throw new NullPointerException();
+            if (distance < 0) throw new IllegalArgumentException("distance must be non-negative");
+
+            this.key = key;
+            this.values = values;
+            this.distance = distance;
+        }
+
+        /** Returns the matching key. */
+        public K getKey() {
+            return key;
+        }
+
+        /** Returns an unmodifiable view of the values associated with the matching key. */
+        public List<V> getValues() {
+            return values;
+        }
+
+        /** Returns the matching key's distance from the search query. */
+        public int getDistance() {
+            return distance;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Match that = (Match) o;
+
+            if (distance != that.distance) return false;
+            if (!key.equals(that.key)) return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = key.hashCode();
+            result = 31 * result + distance;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Match{");
+            sb.append("key=").append(key);
+            sb.append(", values=").append(values);
+            sb.append(", distance=").append(distance);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
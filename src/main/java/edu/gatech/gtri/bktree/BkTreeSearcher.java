@@ -18,9 +18,12 @@ package edu.gatech.gtri.bktree;
 
 import java.util.ArrayDeque;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import static edu.gatech.gtri.bktree.BkTree.Node;
 import static java.lang.Math.max;
 import static java.lang.String.format;
@@ -33,6 +36,8 @@ import static java.lang.String.format;
 public final class BkTreeSearcher<E> {
 
     private final BkTree<E> tree;
+    private final @Nullable PivotTable<E> pivotTable;
+    private final @Nullable QueryCostEstimator<E> costEstimator;
 
     /**
      * Constructs a searcher that orders matches in increasing order of
@@ -43,6 +48,57 @@ public final class BkTreeSearcher<E> {
     public BkTreeSearcher(BkTree<E> tree) {
         if (tree == null) throw new NullPointerException();
         this.tree = tree;
+        this.pivotTable = null;
+        this.costEstimator = null;
+    }
+
+    /**
+     * Constructs a searcher that uses the given {@linkplain PivotTable pivot
+     * table} to avoid calling the metric wherever the table shows that a node
+     * can't match.
+     *
+     * @param tree tree to search
+     * @param pivotTable pivot table built for the tree
+     */
+    public BkTreeSearcher(BkTree<E> tree, PivotTable<E> pivotTable) {
+        if (tree == null) throw new NullPointerException();
+        if (pivotTable == null) throw new NullPointerException();
+        this.tree = tree;
+        this.pivotTable = pivotTable;
+        this.costEstimator = null;
+    }
+
+    /**
+     * Constructs a searcher that scans the tree's elements linearly instead
+     * of searching the tree whenever the given {@linkplain QueryCostEstimator
+     * cost estimator} deems that cheaper.
+     *
+     * @param tree tree to search
+     * @param costEstimator cost estimator built for the tree
+     */
+    public BkTreeSearcher(BkTree<E> tree, QueryCostEstimator<E> costEstimator) {
+        this(tree, null, costEstimator);
+    }
+
+    /**
+     * Constructs a searcher that uses the given {@linkplain PivotTable pivot
+     * table} when searching the tree and scans the tree's elements linearly
+     * instead whenever the given {@linkplain QueryCostEstimator cost
+     * estimator} deems that cheaper.
+     *
+     * @param tree tree to search
+     * @param pivotTable pivot table built for the tree, if any
+     * @param costEstimator cost estimator built for the tree
+     */
+    public BkTreeSearcher(BkTree<E> tree, @Nullable PivotTable<E> pivotTable, QueryCostEstimator<E> costEstimator) {
+        if (tree == null) throw new NullPointerException();
+        if (costEstimator == null) throw new NullPointerException();
+        if (costEstimator.getTree() != tree) {
+            throw new IllegalArgumentException("costEstimator must have been built for tree");
+        }
+        this.tree = tree;
+        this.pivotTable = pivotTable;
+        this.costEstimator = costEstimator;
     }
 
     /**
@@ -59,6 +115,12 @@ public final class BkTreeSearcher<E> {
 
         Metric<? super E> metric = tree.getMetric();
 
+        if (costEstimator != null && costEstimator.prefersLinearScan(maxDistance)) {
+            return scan(costEstimator.getElements(), metric, query, maxDistance);
+        }
+
+        int[] pivotDistances = pivotTable == null ? null : pivotTable.pivotDistances(metric, query);
+
         Set<Match<? extends E>> matches = new HashSet<>();
 
         Queue<Node<E>> queue = new ArrayDeque<>();
@@ -68,24 +130,55 @@ public final class BkTreeSearcher<E> {
             Node<E> node = queue.remove();
             E element = node.getElement();
 
-            int distance = metric.distance(element, query);
-            if (distance < 0) {
-                throw new IllegalMetricException(
-                    format("negative distance (%d) defined between element `%s` and query `%s`",
-                        distance, element, query));
+            Map<Integer, ? extends Node<E>> childNodes = node.getChildNodes();
+
+            // Bounds on the distance between the element and the query,
+            // which are equal once the distance is known exactly
+            int minElementDistance = 0;
+            int maxElementDistance = Integer.MAX_VALUE;
+
+            int row = pivotTable == null ? -1 : pivotTable.row(node);
+            if (row >= 0) {
+                long bounds = pivotTable.bounds(row, pivotDistances);
+                minElementDistance = (int) (bounds >>> 32);
+                maxElementDistance = (int) bounds;
             }
 
-            if (distance <= maxDistance) {
-                matches.add(new Match<>(element, distance));
+            // The metric is skipped only if the element can't match and the
+            // bounds admit no more children than the exact distance could,
+            // as each further child admitted costs a subtree visit.
+            if (minElementDistance != maxElementDistance
+                && (minElementDistance <= maxDistance
+                    || countChildNodes(childNodes, minElementDistance - maxDistance,
+                        maxElementDistance + maxDistance) > 2 * maxDistance + 1)) {
+
+                minElementDistance = maxElementDistance = distance(metric, element, query);
+            }
+
+            if (maxElementDistance <= maxDistance) {
+                matches.add(new Match<>(element, maxElementDistance));
+            }
+
+            if (node.getBucketLength() > 0) {
+                searchBucket(node, minElementDistance, maxElementDistance, metric, query, maxDistance, matches);
             }
 
-            int minSearchDistance = max(distance - maxDistance, 0);
-            int maxSearchDistance = distance + maxDistance;
+            int minSearchDistance = max(minElementDistance - maxDistance, 0);
+            int maxSearchDistance = maxElementDistance + maxDistance;
 
-            for (int searchDistance = minSearchDistance; searchDistance <= maxSearchDistance; ++searchDistance) {
-                Node<E> childNode = node.getChildNode(searchDistance);
-                if (childNode != null) {
-                    queue.add(childNode);
+            if (maxSearchDistance - minSearchDistance < childNodes.size()) {
+                for (int searchDistance = minSearchDistance; searchDistance <= maxSearchDistance; ++searchDistance) {
+                    Node<E> childNode = node.getChildNode(searchDistance);
+                    if (childNode != null) {
+                        queue.add(childNode);
+                    }
+                }
+            } else {
+                for (Map.Entry<Integer, ? extends Node<E>> childNode : childNodes.entrySet()) {
+                    int searchDistance = childNode.getKey();
+                    if (searchDistance >= minSearchDistance && searchDistance <= maxSearchDistance) {
+                        queue.add(childNode.getValue());
+                    }
                 }
             }
         }
@@ -93,6 +186,76 @@ public final class BkTreeSearcher<E> {
         return matches;
     }
 
+    /** Returns the number of the given child nodes whose distance is in the given range. */
+    private static int countChildNodes(
+        Map<Integer, ? extends Node<?>> childNodes, int minSearchDistance, int maxSearchDistance) {
+
+        int count = 0;
+        for (int searchDistance : childNodes.keySet()) {
+            if (searchDistance >= minSearchDistance && searchDistance <= maxSearchDistance) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /** Matches each of the given elements against the query in turn. */
+    private static <E> Set<Match<? extends E>> scan(
+        Object[] elements, Metric<? super E> metric, E query, int maxDistance) {
+
+        Set<Match<? extends E>> matches = new HashSet<>();
+
+        for (Object object : elements) {
+            @SuppressWarnings("unchecked")
+            E element = (E) object;
+
+            int distance = distance(metric, element, query);
+            if (distance <= maxDistance) {
+                matches.add(new Match<>(element, distance));
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Scans the bucket of a node, skipping the metric for any bucketed element
+     * whose known distance to the node's element rules it out by the triangle
+     * inequality, given bounds on the distance between the node's element and
+     * the query.
+     */
+    private static <E> void searchBucket(
+        Node<E> node, int minNodeDistance, int maxNodeDistance, Metric<? super E> metric, E query,
+        int maxDistance, Set<Match<? extends E>> matches) {
+
+        for (int i = 0, length = node.getBucketLength(); i < length; ++i) {
+            int bucketDistance = node.getBucketDistance(i);
+            if (bucketDistance < minNodeDistance - maxDistance) continue;
+            if (bucketDistance - maxDistance > maxNodeDistance) continue;
+
+            E element = node.getBucketElement(i);
+            int distance = distance(metric, element, query);
+            if (distance <= maxDistance) {
+                matches.add(new Match<>(element, distance));
+            }
+        }
+    }
+
+    /**
+     * Returns the distance between the given element and query.
+     *
+     * @throws IllegalMetricException if the distance is negative
+     */
+    static <E> int distance(Metric<? super E> metric, E element, E query) {
+        int distance = metric.distance(element, query);
+        if (distance < 0) {
+            throw new IllegalMetricException(
+                format("negative distance (%d) defined between element `%s` and query `%s`",
+                    distance, element, query));
+        }
+        return distance;
+    }
+
     /** Returns the tree searched by this searcher. */
     public BkTree<E> getTree() {
         return tree;
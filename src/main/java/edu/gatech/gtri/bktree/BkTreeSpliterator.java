@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import static edu.gatech.gtri.bktree.BkTree.Node;
+
+/**
+ * A {@link Spliterator} over the elements of some subtrees of a
+ * {@link BkTree}, which splits by handing off half of its subtrees.
+ *
+ * @param <E> type of elements in the tree
+ */
+final class BkTreeSpliterator<E> implements Spliterator<E> {
+
+    /** Subtrees not yet visited, the next of which is first. */
+    private final Deque<Node<E>> subtrees;
+    /** Elements of visited nodes not yet passed to an action. */
+    private final Deque<E> elements = new ArrayDeque<>();
+    private long estimatedSize;
+
+    BkTreeSpliterator(@Nullable Node<E> root, long estimatedSize) {
+        this.subtrees = new ArrayDeque<>();
+        if (root != null) subtrees.add(root);
+        this.estimatedSize = estimatedSize;
+    }
+
+    private BkTreeSpliterator(Deque<Node<E>> subtrees, long estimatedSize) {
+        this.subtrees = subtrees;
+        this.estimatedSize = estimatedSize;
+    }
+
+    /** Moves the element(s) of the next subtree's root to the pending elements and its children to the subtrees. */
+    private void visitNextSubtree() {
+        Node<E> node = subtrees.pop();
+        elements.add(node.getElement());
+        for (int i = 0, length = node.getBucketLength(); i < length; ++i) {
+            elements.add(node.getBucketElement(i));
+        }
+        for (Node<E> child : node.getChildNodes().values()) {
+            subtrees.push(child);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (action == null) throw new NullPointerException();
+
+        if (elements.isEmpty()) {
+            if (subtrees.isEmpty()) return false;
+            visitNextSubtree();
+        }
+        action.accept(elements.remove());
+        return true;
+    }
+
+    @Override
+    public @Nullable Spliterator<E> trySplit() {
+        while (subtrees.size() == 1) {
+            visitNextSubtree();
+        }
+        if (subtrees.size() < 2) return null;
+
+        // The last subtrees are the shallowest and thus likely the largest.
+        Deque<Node<E>> split = new ArrayDeque<>();
+        for (int i = subtrees.size() / 2; i > 0; --i) {
+            split.push(subtrees.removeLast());
+        }
+
+        estimatedSize >>>= 1;
+        return new BkTreeSpliterator<>(split, estimatedSize);
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+}
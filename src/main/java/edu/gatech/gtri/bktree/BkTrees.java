@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static edu.gatech.gtri.bktree.BkTree.Node;
+
+/**
+ * Useful operations on {@link BkTree}s.
+ */
+public class BkTrees {
+
+    private BkTrees() {}
+
+    /**
+     * Returns a {@link Spliterator} over all of the elements in the given tree.
+     *
+     * <p>The spliterator splits by handing off half of the subtrees it has
+     * yet to visit, so a parallel stream over it divides the tree's subtrees
+     * among threads. It visits nodes in no particular order and must not be
+     * used while the tree is mutated.
+     *
+     * @param tree tree whose elements to enumerate
+     */
+    public static <E> Spliterator<E> spliterator(BkTree<E> tree) {
+        if (tree == null) throw new NullPointerException();
+
+        long estimatedSize = Long.MAX_VALUE;
+        if (tree instanceof MutableBkTree) {
+            estimatedSize = ((MutableBkTree<E>) tree).size();
+        } else if (tree instanceof BkTreeMap) {
+            estimatedSize = ((BkTreeMap<E, ?>) tree).size();
+        }
+
+        return new BkTreeSpliterator<>(tree.getRoot(), estimatedSize);
+    }
+
+    /**
+     * Returns a {@link Spliterator} over all of the elements in the subtree
+     * rooted at the given node, including bucketed elements.
+     *
+     * @param node root of the subtree whose elements to enumerate
+     * @see #spliterator(BkTree)
+     */
+    public static <E> Spliterator<E> spliterator(Node<E> node) {
+        if (node == null) throw new NullPointerException();
+        return new BkTreeSpliterator<>(node, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns a sequential {@link Stream} of all of the elements in the given
+     * tree, which may be made {@linkplain Stream#parallel() parallel}.
+     *
+     * @param tree tree whose elements to stream
+     * @see #spliterator(BkTree)
+     */
+    public static <E> Stream<E> stream(BkTree<E> tree) {
+        return StreamSupport.stream(spliterator(tree), false);
+    }
+
+    /**
+     * Returns a sequential {@link Stream} of all of the elements in the
+     * subtree rooted at the given node, which may be made
+     * {@linkplain Stream#parallel() parallel}.
+     *
+     * @param node root of the subtree whose elements to stream
+     * @see #spliterator(Node)
+     */
+    public static <E> Stream<E> stream(Node<E> node) {
+        return StreamSupport.stream(spliterator(node), false);
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import static java.lang.String.format;
+
+/**
+ * A mutable {@linkplain BkTree BK-tree} whose leaf nodes each hold a bucket
+ * of up to a fixed number of elements.
+ *
+ * <p>A leaf node holds its own element plus up to {@code bucketSize - 1}
+ * further elements, which are stored in contiguous arrays alongside their
+ * distances to the node's element. When a full leaf receives another element,
+ * it splits into an ordinary node whose bucketed elements are redistributed
+ * among new children according to their already known distances. Compared to
+ * a {@link MutableBkTree}, this yields shallower trees with far fewer node
+ * objects, and lets searches scan the lowest levels of the tree linearly.
+ *
+ * <p>Bucketed elements are not held by child nodes, but are reachable through
+ * {@link BkTree.Node#getBucketElement(int)}; {@link BkTreeSearcher} scans each
+ * bucket it encounters.
+ *
+ * <p>Mutating operations are <em>not</em> thread-safe.
+ *
+ * <p>The {@link #equals(Object)}, {@link #hashCode()} and {@link #toString()}
+ * methods on this class and its {@link BkTree.Node} implementation are each
+ * recursive and as such may not complete normally when called on very deep
+ * trees.
+ *
+ * @param <E> type of elements in this tree
+ */
+public final class BucketedBkTree<E> implements BkTree<E>, ModificationCounted {
+
+    /** The bucket size used by {@link #BucketedBkTree(Metric)}. */
+    public static final int DEFAULT_BUCKET_SIZE = 16;
+
+    private final Metric<? super E> metric;
+    private final int bucketSize;
+    @Nullable BucketedNode<E> root;
+    private int modificationCount;
+
+    /**
+     * Constructs a tree whose leaves hold up to {@link #DEFAULT_BUCKET_SIZE}
+     * elements.
+     *
+     * @param metric metric for elements in this tree
+     */
+    public BucketedBkTree(Metric<? super E> metric) {
+        this(metric, DEFAULT_BUCKET_SIZE);
+    }
+
+    /**
+     * @param metric metric for elements in this tree
+     * @param bucketSize positive maximum number of elements held by each leaf
+     */
+    public BucketedBkTree(Metric<? super E> metric, int bucketSize) {
+        if (metric == null) throw new NullPointerException();
+        if (bucketSize < 1) throw new IllegalArgumentException("bucketSize must be positive");
+        this.metric = metric;
+        this.bucketSize = bucketSize;
+    }
+
+    /**
+     * Adds the given element to this tree, if it's not already present.
+     *
+     * @param element element
+     */
+    public void add(E element) {
+        if (element == null) throw new NullPointerException();
+
+        if (root == null) {
+            root = new BucketedNode<>(element);
+            ++modificationCount;
+        } else {
+            add(root, element);
+        }
+    }
+
+    private void add(BucketedNode<E> node, E element) {
+        while (!node.element.equals(element)) {
+            int distance = distance(node.element, element);
+
+            if (node.isLeaf()) {
+                if (node.bucketContains(element, distance)) break;
+                if (node.bucketLength < bucketSize - 1) {
+                    node.addToBucket(element, distance, bucketSize - 1);
+                    ++modificationCount;
+                    break;
+                }
+                split(node);
+            }
+
+            BucketedNode<E> parent = node;
+            node = parent.childrenByDistance.get(distance);
+            if (node == null) {
+                node = new BucketedNode<>(element);
+                parent.childrenByDistance.put(distance, node);
+                ++modificationCount;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Turns the given full leaf into an ordinary node, moving its bucketed
+     * elements into children without recomputing their distances to it.
+     */
+    private void split(BucketedNode<E> node) {
+        Object[] elements = node.bucketElements;
+        int[] distances = node.bucketDistances;
+        int length = node.bucketLength;
+
+        node.bucketElements = null;
+        node.bucketDistances = null;
+        node.bucketLength = 0;
+        node.childrenByDistance = new HashMap<>();
+
+        for (int i = 0; i < length; ++i) {
+            @SuppressWarnings("unchecked")
+            E element = (E) elements[i];
+
+            BucketedNode<E> child = node.childrenByDistance.get(distances[i]);
+            if (child == null) {
+                node.childrenByDistance.put(distances[i], new BucketedNode<>(element));
+            } else {
+                // A child created by this split holds fewer elements than the
+                // split node did, so this never causes another split.
+                add(child, element);
+            }
+        }
+    }
+
+    private int distance(E x, E y) {
+        int distance = metric.distance(x, y);
+        if (distance < 0) {
+            throw new IllegalMetricException(
+                format("negative distance (%d) defined between elements `%s` and `%s`", distance, x, y));
+        }
+        return distance;
+    }
+
+    /**
+     * Adds all of the given elements to this tree.
+     *
+     * @param elements elements
+     */
+    public void addAll(Iterable<? extends E> elements) {
+        if (elements == null) throw new NullPointerException();
+        for (E element : elements) {
+            add(element);
+        }
+    }
+
+    /**
+     * Adds all of the given elements to this tree.
+     *
+     * @param elements elements
+     */
+    @SafeVarargs
+    public final void addAll(E... elements) {
+        if (elements == null) throw new NullPointerException();
+        addAll(Arrays.asList(elements));
+    }
+
+    /** Returns the maximum number of elements held by each leaf of this tree. */
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    @Override
+    public int modificationCount() {
+        return modificationCount;
+    }
+
+    @Override
+    public Metric<? super E> getMetric() {
+        return metric;
+    }
+
+    @Override
+    public @Nullable Node<E> getRoot() {
+        return root;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BucketedBkTree that = (BucketedBkTree) o;
+
+        if (bucketSize != that.bucketSize) return false;
+        if (!metric.equals(that.metric)) return false;
+        if (root != null ? !root.equals(that.root) : that.root != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = metric.hashCode();
+        result = 31 * result + bucketSize;
+        result = 31 * result + (root != null ? root.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("BucketedBkTree{");
+        sb.append("metric=").append(metric);
+        sb.append(", bucketSize=").append(bucketSize);
+        sb.append(", root=").append(root);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * A node of a {@link BucketedBkTree}. A leaf has no children map and holds
+     * its bucketed elements and their distances to its element in parallel
+     * arrays, of which only the first {@link #bucketLength} entries are used;
+     * an ordinary node has a children map and an empty bucket.
+     */
+    static final class BucketedNode<E> implements Node<E> {
+        final E element;
+        @Nullable Map<Integer, BucketedNode<E>> childrenByDistance;
+        @Nullable Object[] bucketElements;
+        @Nullable int[] bucketDistances;
+        int bucketLength;
+
+        BucketedNode(E element) {
+            if (element == null) throw new NullPointerException();
+            this.element = element;
+        }
+
+        boolean isLeaf() {
+            return childrenByDistance == null;
+        }
+
+        boolean bucketContains(E element, int distance) {
+            for (int i = 0; i < bucketLength; ++i) {
+                if (bucketDistances[i] == distance && bucketElements[i].equals(element)) return true;
+            }
+            return false;
+        }
+
+        void addToBucket(E element, int distance, int capacity) {
+            if (bucketElements == null) {
+                bucketElements = new Object[capacity];
+                bucketDistances = new int[capacity];
+            }
+            bucketElements[bucketLength] = element;
+            bucketDistances[bucketLength] = distance;
+            ++bucketLength;
+        }
+
+        @Override
+        public int getBucketLength() {
+            return bucketLength;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E getBucketElement(int index) {
+            checkBucketIndex(index);
+            return (E) bucketElements[index];
+        }
+
+        @Override
+        public int getBucketDistance(int index) {
+            checkBucketIndex(index);
+            return bucketDistances[index];
+        }
+
+        private void checkBucketIndex(int index) {
+            if (index < 0 || index >= bucketLength) {
+                throw new IndexOutOfBoundsException(
+                    format("index (%d) must be less than bucket length (%d)", index, bucketLength));
+            }
+        }
+
+        @Override
+        public E getElement() {
+            return element;
+        }
+
+        @Override
+        public @Nullable Node<E> getChildNode(int distance) {
+            return childrenByDistance == null ? null : childrenByDistance.get(distance);
+        }
+
+        /** Returns the child nodes of this node, which don't include its bucketed elements. */
+        @Override
+        public Map<Integer, ? extends Node<E>> getChildNodes() {
+            return childrenByDistance == null
+                ? Collections.<Integer, Node<E>>emptyMap() : Collections.unmodifiableMap(childrenByDistance);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            BucketedNode that = (BucketedNode) o;
+
+            if (!element.equals(that.element)) return false;
+            if (childrenByDistance != null ? !childrenByDistance.equals(that.childrenByDistance)
+                : that.childrenByDistance != null) return false;
+            if (bucketLength != that.bucketLength) return false;
+            for (int i = 0; i < bucketLength; ++i) {
+                if (bucketDistances[i] != that.bucketDistances[i]) return false;
+                if (!bucketElements[i].equals(that.bucketElements[i])) return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = element.hashCode();
+            result = 31 * result + (childrenByDistance != null ? childrenByDistance.hashCode() : 0);
+            for (int i = 0; i < bucketLength; ++i) {
+                result = 31 * result + bucketElements[i].hashCode();
+                result = 31 * result + bucketDistances[i];
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("BucketedNode{");
+            sb.append("element=").append(element);
+            if (isLeaf()) {
+                sb.append(", bucket=[");
+                for (int i = 0; i < bucketLength; ++i) {
+                    if (i > 0) sb.append(", ");
+                    sb.append(bucketDistances[i]).append('=').append(bucketElements[i]);
+                }
+                sb.append(']');
+            } else {
+                sb.append(", childrenByDistance=").append(childrenByDistance);
+            }
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
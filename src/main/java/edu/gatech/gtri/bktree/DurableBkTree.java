@@ -0,0 +1,409 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import static edu.gatech.gtri.bktree.MutableBkTree.MutableNode;
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A {@link MutableBkTree} whose additions survive restarts.
+ *
+ * <p>The tree is persisted in a directory as an <em>image</em> of the tree as
+ * of the last {@linkplain #checkpoint() checkpoint} plus an append-only
+ * <em>log</em> of elements added since. {@linkplain #open Opening} the
+ * directory rebuilds the tree from the image and then replays the log,
+ * discarding any partially written record at its tail. Because the image
+ * lists elements in breadth-first order, the rebuilt tree has the same
+ * structure as the one that was checkpointed.
+ *
+ * <p>To keep the log from limiting insertion throughput, log records are
+ * buffered in memory and written to the log file in batches, and the log is
+ * only forced to the storage device once every {@code syncInterval}
+ * additions, upon {@link #sync()} and upon {@link #close()}. Additions since
+ * the last such sync may be lost if the process or machine crashes.
+ *
+ * <p>Mutating operations are <em>not</em> thread-safe.
+ *
+ * @param <E> type of elements in this tree
+ */
+public final class DurableBkTree<E> implements BkTree<E>, ModificationCounted, Closeable {
+
+    /** The sync interval used by {@link #open(Path, Metric, ElementSerializer)}. */
+    public static final int DEFAULT_SYNC_INTERVAL = 1024;
+
+    static final String IMAGE_FILE_NAME = "image";
+    static final String LOG_FILE_NAME = "log";
+
+    private final MutableBkTree<E> tree;
+    private final ElementSerializer<E> serializer;
+    private final Path directory;
+    private final int syncInterval;
+    private final FileChannel log;
+    private final RecordWriter<E> logWriter;
+    private int unsyncedAdditions;
+    private boolean closed;
+
+    private DurableBkTree(
+        MutableBkTree<E> tree, ElementSerializer<E> serializer, Path directory, int syncInterval, FileChannel log) {
+
+        this.tree = tree;
+        this.serializer = serializer;
+        this.directory = directory;
+        this.syncInterval = syncInterval;
+        this.log = log;
+        this.logWriter = new RecordWriter<>(serializer, log);
+    }
+
+    /**
+     * Opens the tree persisted in the given directory, creating an empty one
+     * if there is none, and syncs the log every
+     * {@link #DEFAULT_SYNC_INTERVAL} additions.
+     *
+     * @param directory directory in which the tree is persisted
+     * @param metric metric for elements in the tree
+     * @param serializer serializer for elements in the tree
+     */
+    public static <E> DurableBkTree<E> open(
+        Path directory, Metric<? super E> metric, ElementSerializer<E> serializer) throws IOException {
+
+        return open(directory, metric, serializer, DEFAULT_SYNC_INTERVAL);
+    }
+
+    /**
+     * Opens the tree persisted in the given directory, creating an empty one
+     * if there is none.
+     *
+     * @param directory directory in which the tree is persisted
+     * @param metric metric for elements in the tree
+     * @param serializer serializer for elements in the tree
+     * @param syncInterval positive number of additions after which the log is synced
+     */
+    public static <E> DurableBkTree<E> open(
+        Path directory, Metric<? super E> metric, ElementSerializer<E> serializer, int syncInterval)
+        throws IOException {
+
+        if (directory == null) throw new NullPointerException();
+        if (metric == null) throw new NullPointerException();
+        if (serializer == null) throw new NullPointerException();
+        if (syncInterval < 1) throw new IllegalArgumentException("syncInterval must be positive");
+
+        Files.createDirectories(directory);
+        MutableBkTree<E> tree = new MutableBkTree<>(metric);
+
+        Path image = directory.resolve(IMAGE_FILE_NAME);
+        if (Files.exists(image)) {
+            try (FileChannel channel = FileChannel.open(image, READ)) {
+                if (replay(channel, serializer, tree) != channel.size()) {
+                    throw new IOException(format("corrupt image `%s`", image));
+                }
+            }
+        }
+
+        Path logFile = directory.resolve(LOG_FILE_NAME);
+        boolean logExists = Files.exists(logFile);
+        FileChannel log = FileChannel.open(logFile, CREATE, READ, WRITE);
+        try {
+            if (!logExists) forceDirectory(directory);
+            long end = replay(log, serializer, tree);
+            log.truncate(end);
+            log.position(end);
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+
+        return new DurableBkTree<>(tree, serializer, directory, syncInterval, log);
+    }
+
+    /**
+     * Adds the records in the given channel to the given tree, stopping at the
+     * first incomplete or corrupt record.
+     *
+     * @return position in the channel just past the last record added
+     */
+    private static <E> long replay(FileChannel channel, ElementSerializer<E> serializer, MutableBkTree<E> tree)
+        throws IOException {
+
+        // The stream is deliberately left open, as closing it would close the channel.
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        CRC32 crc = new CRC32();
+        long size = channel.size();
+        long position = 0;
+
+        while (size - position >= RecordWriter.HEADER_LENGTH) {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 0 || length > size - position - RecordWriter.HEADER_LENGTH) break;
+
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) break;
+
+            tree.add(serializer.read(new DataInputStream(new ByteArrayInputStream(payload))));
+            position += RecordWriter.HEADER_LENGTH + length;
+        }
+
+        return position;
+    }
+
+    /**
+     * Adds the given element to this tree and appends it to the log, if it's
+     * not already present.
+     *
+     * @param element element
+     */
+    public void add(E element) throws IOException {
+        if (element == null) throw new NullPointerException();
+        ensureOpen();
+        if (tree.contains(element)) return;
+
+        // Neither a failed serialization nor a failed addition to the tree
+        // may leave the tree and the log disagreeing.
+        logWriter.serialize(element);
+        tree.add(element);
+        logWriter.append();
+        if (++unsyncedAdditions >= syncInterval) {
+            sync();
+        }
+    }
+
+    /**
+     * Adds all of the given elements to this tree.
+     *
+     * @param elements elements
+     */
+    public void addAll(Iterable<? extends E> elements) throws IOException {
+        if (elements == null) throw new NullPointerException();
+        for (E element : elements) {
+            add(element);
+        }
+    }
+
+    /**
+     * Adds all of the given elements to this tree.
+     *
+     * @param elements elements
+     */
+    @SafeVarargs
+    public final void addAll(E... elements) throws IOException {
+        if (elements == null) throw new NullPointerException();
+        addAll(Arrays.asList(elements));
+    }
+
+    /**
+     * Writes all buffered log records to the log and forces the log to the
+     * storage device, so that all additions so far survive a crash.
+     */
+    public void sync() throws IOException {
+        ensureOpen();
+        logWriter.flush();
+        log.force(false);
+        unsyncedAdditions = 0;
+    }
+
+    /**
+     * Replaces the image with one of the current tree and truncates the log.
+     *
+     * <p>The new image is written to a temporary file that then atomically
+     * replaces the old image, so a crash during a checkpoint leaves either
+     * the old image and the full log or the new image behind. The directory
+     * is forced after the replacement, before the log is truncated, so the
+     * truncation can't reach the storage device without the new image.
+     */
+    public void checkpoint() throws IOException {
+        ensureOpen();
+
+        Path image = directory.resolve(IMAGE_FILE_NAME);
+        Path temporaryImage = directory.resolve(IMAGE_FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryImage, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            RecordWriter<E> imageWriter = new RecordWriter<>(serializer, channel);
+
+            Queue<MutableNode<E>> queue = new ArrayDeque<>();
+            if (tree.root != null) queue.add(tree.root);
+            while (!queue.isEmpty()) {
+                MutableNode<E> node = queue.remove();
+                imageWriter.write(node.element);
+                queue.addAll(node.childrenByDistance.values());
+            }
+
+            imageWriter.flush();
+            channel.force(true);
+        }
+        Files.move(temporaryImage, image, ATOMIC_MOVE);
+        forceDirectory(directory);
+
+        logWriter.discard();
+        log.truncate(0);
+        log.force(true);
+        unsyncedAdditions = 0;
+    }
+
+    /** Forces the entries of the given directory, such as newly created or renamed files, to the storage device. */
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        }
+    }
+
+    /** Returns whether the given element is present in this tree. */
+    public boolean contains(E element) {
+        return tree.contains(element);
+    }
+
+    /** Returns the number of elements in this tree. */
+    public int size() {
+        return tree.size();
+    }
+
+    @Override
+    public int modificationCount() {
+        return tree.modificationCount();
+    }
+
+    @Override
+    public Metric<? super E> getMetric() {
+        return tree.getMetric();
+    }
+
+    @Override
+    public @Nullable Node<E> getRoot() {
+        return tree.getRoot();
+    }
+
+    /** Syncs and closes the log. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            sync();
+        } finally {
+            closed = true;
+            log.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("tree is closed");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DurableBkTree{");
+        sb.append("directory=").append(directory);
+        sb.append(", syncInterval=").append(syncInterval);
+        sb.append(", tree=").append(tree);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Writes records, each an element's serialized length and CRC-32 followed
+     * by the serialized element, to a channel through an in-memory buffer.
+     */
+    private static final class RecordWriter<E> {
+        static final int HEADER_LENGTH = 8;
+        static final int BUFFER_CAPACITY = 64 * 1024;
+
+        private final ElementSerializer<E> serializer;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
+        private final PayloadOutputStream payload = new PayloadOutputStream();
+        private final DataOutputStream payloadOut = new DataOutputStream(payload);
+        private final CRC32 crc = new CRC32();
+
+        RecordWriter(ElementSerializer<E> serializer, FileChannel channel) {
+            this.serializer = serializer;
+            this.channel = channel;
+        }
+
+        void write(E element) throws IOException {
+            serialize(element);
+            append();
+        }
+
+        /** Serializes the given element into the pending record, replacing any other. */
+        void serialize(E element) throws IOException {
+            payload.reset();
+            serializer.write(element, payloadOut);
+            crc.reset();
+            crc.update(payload.bytes(), 0, payload.size());
+        }
+
+        /** Appends the pending record to the buffer, writing the buffer out if it's full. */
+        void append() throws IOException {
+            int length = payload.size();
+
+            if (buffer.remaining() < HEADER_LENGTH + length) {
+                flush();
+            }
+            ByteBuffer target = buffer.remaining() < HEADER_LENGTH + length
+                ? ByteBuffer.allocate(HEADER_LENGTH + length) : buffer;
+            target.putInt(length).putInt((int) crc.getValue()).put(payload.bytes(), 0, length);
+            if (target != buffer) {
+                writeFully(target);
+            }
+        }
+
+        void flush() throws IOException {
+            writeFully(buffer);
+        }
+
+        void discard() {
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            source.flip();
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+            source.clear();
+        }
+    }
+
+    private static final class PayloadOutputStream extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
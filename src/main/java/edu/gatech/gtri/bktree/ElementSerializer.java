@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts elements to and from bytes, e.g., for a {@link DurableBkTree}.
+ *
+ * @param <E> type of elements converted by this serializer
+ */
+public interface ElementSerializer<E> {
+
+    /**
+     * Writes the given element to the given output.
+     */
+    void write(E element, DataOutput out) throws IOException;
+
+    /**
+     * Reads an element previously written by {@link #write(Object, DataOutput)}
+     * from the given input.
+     */
+    E read(DataInput in) throws IOException;
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Useful {@link ElementSerializer}s.
+ */
+public class ElementSerializers {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ElementSerializers() {}
+
+    /** Returns an {@link ElementSerializer} that writes strings as length-prefixed UTF-8. */
+    public static ElementSerializer<String> stringSerializer() {
+        return new ElementSerializer<String>() {
+            @Override
+            public void write(String element, DataOutput out) throws IOException {
+                byte[] bytes = element.getBytes(UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new String(bytes, UTF_8);
+            }
+        };
+    }
+}
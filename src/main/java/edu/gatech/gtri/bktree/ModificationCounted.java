@@ -0,0 +1,32 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+/**
+ * A {@link BkTree} that counts its modifications, so that structures derived
+ * from it, such as a {@link QueryCostEstimator}'s array of its elements, can
+ * tell when they've become stale.
+ */
+interface ModificationCounted {
+
+    /**
+     * Returns the number of times this tree has been modified. The count
+     * changes whenever the tree's elements do, and may also change when they
+     * don't.
+     */
+    int modificationCount();
+}
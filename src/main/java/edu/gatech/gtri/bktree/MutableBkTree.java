@@ -16,9 +16,14 @@
 
 package edu.gatech.gtri.bktree;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -29,24 +34,50 @@ import static java.lang.String.format;
  *
  * <p>Mutating operations are <em>not</em> thread-safe.
  *
- * <p>Whereas the {@linkplain #add(Object) mutating methods} are iterative and
- * can thus handle very large trees, the {@link #equals(Object)},
- * {@link #hashCode()} and {@link #toString()} methods on this class and its
- * {@link BkTree.Node} implementation are each recursive and as such may not
- * complete normally when called on very deep trees.
+ * <p>Besides the tree itself, this class maintains a hash index of its
+ * elements, so that {@link #contains(Object)} and {@link #size()} take
+ * constant time and adding an element that's already present doesn't walk
+ * the tree. It also maintains a hash of the tree's structure as elements are
+ * added, so that {@link #hashCode()} takes constant time and
+ * {@link #equals(Object)} can quickly tell most unequal trees apart.
+ *
+ * <p>Whereas the {@linkplain #add(Object) mutating methods}, {@code equals} and
+ * {@code hashCode} are iterative and can thus handle very large trees, the
+ * {@link #toString()} methods on this class and its {@link BkTree.Node}
+ * implementation are each recursive and as such may not complete normally
+ * when called on very deep trees.
  *
  * @param <E> type of elements in this tree
  */
-public final class MutableBkTree<E> implements BkTree<E> {
+public final class MutableBkTree<E> implements BkTree<E>, ModificationCounted {
 
     private final Metric<? super E> metric;
+    private final Set<E> elements = new HashSet<>();
+    private int structureHash;
     @Nullable MutableNode<E> root;
+    private int modificationCount;
 
     public MutableBkTree(Metric<? super E> metric) {
         if (metric == null) throw new NullPointerException();
         this.metric = metric;
     }
 
+    /** Constructs a tree with the given structure, which is indexed as is. */
+    MutableBkTree(Metric<? super E> metric, MutableNode<E> root) {
+        this(metric);
+        if (root == null) throw new NullPointerException();
+        this.root = root;
+
+        Queue<MutableNode<E>> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            MutableNode<E> node = queue.remove();
+            elements.add(node.element);
+            queue.addAll(node.childrenByDistance.values());
+        }
+        structureHash = root.hashCode();
+    }
+
     /**
      * Adds the given element to this tree, if it's not already present.
      *
@@ -54,23 +85,42 @@ public final class MutableBkTree<E> implements BkTree<E> {
      */
     public void add(E element) {
         if (element == null) throw new NullPointerException();
+        if (elements.contains(element)) return;
 
         if (root == null) {
             root = new MutableNode<>(element);
+            structureHash = root.element.hashCode();
         } else {
-            MutableNode<E> node = root;
-            while (!node.getElement().equals(element)) {
-                int distance = distance(node.getElement(), element);
-
-                MutableNode<E> parent = node;
-                node = parent.childrenByDistance.get(distance);
-                if (node == null) {
-                    node = new MutableNode<>(element);
-                    parent.childrenByDistance.put(distance, node);
+            MutableNode<E> parent = root;
+            while (true) {
+                int distance = distance(parent.getElement(), element);
+
+                MutableNode<E> child = parent.childrenByDistance.get(distance);
+                if (child == null) {
+                    child = new MutableNode<>(element);
+                    parent.childrenByDistance.put(distance, child);
+                    structureHash += edgeHash(parent, distance, child);
                     break;
                 }
+                parent = child;
             }
         }
+
+        elements.add(element);
+        ++modificationCount;
+    }
+
+    /**
+     * Returns the hash of the edge between the given nodes. The hash of a
+     * (sub)tree is the hash of its root's element plus the hashes of all of
+     * its edges, so that it can be updated in constant time as nodes are
+     * added and computed without recursion.
+     */
+    static int edgeHash(MutableNode<?> parent, int distance, MutableNode<?> child) {
+        int result = parent.element.hashCode();
+        result = 31 * result + distance;
+        result = 31 * result + child.element.hashCode();
+        return result;
     }
 
     private int distance(E x, E y) {
@@ -105,6 +155,22 @@ public final class MutableBkTree<E> implements BkTree<E> {
         addAll(Arrays.asList(elements));
     }
 
+    /** Returns whether the given element is present in this tree. */
+    public boolean contains(E element) {
+        if (element == null) throw new NullPointerException();
+        return elements.contains(element);
+    }
+
+    /** Returns the number of elements in this tree. */
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public int modificationCount() {
+        return modificationCount;
+    }
+
     @Override
     public Metric<? super E> getMetric() {
         return metric;
@@ -122,6 +188,8 @@ public final class MutableBkTree<E> implements BkTree<E> {
 
         MutableBkTree that = (MutableBkTree) o;
 
+        if (elements.size() != that.elements.size()) return false;
+        if (structureHash != that.structureHash) return false;
         if (!metric.equals(that.metric)) return false;
         if (root != null ? !root.equals(that.root) : that.root != null) return false;
 
@@ -131,7 +199,7 @@ public final class MutableBkTree<E> implements BkTree<E> {
     @Override
     public int hashCode() {
         int result = metric.hashCode();
-        result = 31 * result + (root != null ? root.hashCode() : 0);
+        result = 31 * result + structureHash;
         return result;
     }
 
@@ -163,23 +231,51 @@ public final class MutableBkTree<E> implements BkTree<E> {
             return childrenByDistance.get(distance);
         }
 
+        @Override
+        public Map<Integer, ? extends Node<E>> getChildNodes() {
+            return Collections.unmodifiableMap(childrenByDistance);
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
 
-            MutableNode that = (MutableNode) o;
+            Queue<MutableNode<?>> queue = new ArrayDeque<>();
+            queue.add(this);
+            queue.add((MutableNode<?>) o);
+
+            while (!queue.isEmpty()) {
+                MutableNode<?> node = queue.remove();
+                MutableNode<?> that = queue.remove();
 
-            if (!childrenByDistance.equals(that.childrenByDistance)) return false;
-            if (!element.equals(that.element)) return false;
+                if (!node.element.equals(that.element)) return false;
+                if (!node.childrenByDistance.keySet().equals(that.childrenByDistance.keySet())) return false;
+
+                for (Map.Entry<Integer, ? extends MutableNode<?>> child : node.childrenByDistance.entrySet()) {
+                    queue.add(child.getValue());
+                    queue.add(that.childrenByDistance.get(child.getKey()));
+                }
+            }
 
             return true;
         }
 
+        /** Returns the hash of the subtree rooted at this node, as defined by {@link #edgeHash}. */
         @Override
         public int hashCode() {
             int result = element.hashCode();
-            result = 31 * result + childrenByDistance.hashCode();
+
+            Queue<MutableNode<?>> queue = new ArrayDeque<>();
+            queue.add(this);
+            while (!queue.isEmpty()) {
+                MutableNode<?> node = queue.remove();
+                for (Map.Entry<Integer, ? extends MutableNode<?>> child : node.childrenByDistance.entrySet()) {
+                    result += edgeHash(node, child.getKey(), child.getValue());
+                    queue.add(child.getValue());
+                }
+            }
+
             return result;
         }
 
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static edu.gatech.gtri.bktree.BkTreeSearcher.Match;
+import static java.lang.Math.max;
+import static java.lang.String.format;
+
+/**
+ * A mutable BK-tree of strings that keeps its strings outside the Java heap.
+ *
+ * <p>The characters of each string are copied into one of a few large direct
+ * {@link ByteBuffer}s, or <em>arenas</em>, and the tree's structure is kept in
+ * a handful of {@code int} and {@code long} arrays indexed by node, so that a
+ * tree of millions of strings consists of only a few dozen objects. The
+ * metric is handed reusable {@link CharSequence} views of the strings in the
+ * arenas rather than {@link String}s, and {@linkplain #search matches} are
+ * copied back into {@code String}s only once found.
+ *
+ * <p>Because the views are reused, the metric must not retain references to
+ * the {@code CharSequence}s it's given. The arenas are released when the tree
+ * is garbage-collected.
+ *
+ * <p>Mutating operations are <em>not</em> thread-safe, but searches may run
+ * concurrently with one another.
+ */
+public final class OffHeapStringBkTree {
+
+    /** The arena size used by {@link #OffHeapStringBkTree(Metric)}. */
+    public static final int DEFAULT_ARENA_SIZE = 16 * 1024 * 1024;
+
+    private static final int NONE = -1;
+
+    private final Metric<? super CharSequence> metric;
+    private final int arenaSize;
+
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private ByteBuffer arena;
+
+    private int size;
+    /** Arena index in the high 32 bits and byte offset in the low 32 bits of each node's string. */
+    private long[] addresses = new long[16];
+    private int[] lengths = new int[16];
+    private int[] distancesToParent = new int[16];
+    private int[] firstChildren = new int[16];
+    private int[] nextSiblings = new int[16];
+
+    private final TermView nodeView = new TermView();
+
+    /**
+     * Constructs a tree whose arenas each hold {@link #DEFAULT_ARENA_SIZE} bytes.
+     *
+     * @param metric metric for strings in this tree
+     */
+    public OffHeapStringBkTree(Metric<? super CharSequence> metric) {
+        this(metric, DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * @param metric metric for strings in this tree
+     * @param arenaSize positive size in bytes of each arena; a string needing
+     * more is given an arena of its own
+     */
+    public OffHeapStringBkTree(Metric<? super CharSequence> metric, int arenaSize) {
+        if (metric == null) throw new NullPointerException();
+        if (arenaSize < 1) throw new IllegalArgumentException("arenaSize must be positive");
+        this.metric = metric;
+        this.arenaSize = arenaSize;
+    }
+
+    /**
+     * Adds the given string to this tree, if it's not already present.
+     *
+     * @param element string
+     */
+    public void add(CharSequence element) {
+        if (element == null) throw new NullPointerException();
+
+        if (size == 0) {
+            newNode(element, 0);
+            return;
+        }
+
+        int node = 0;
+        while (true) {
+            TermView view = view(node, nodeView);
+            if (view.contentEquals(element)) return;
+            int distance = distance(view, element);
+
+            int child = childAt(node, distance);
+            if (child == NONE) {
+                child = newNode(element, distance);
+                nextSiblings[child] = firstChildren[node];
+                firstChildren[node] = child;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Adds all of the given strings to this tree.
+     *
+     * @param elements strings
+     */
+    public void addAll(Iterable<? extends CharSequence> elements) {
+        if (elements == null) throw new NullPointerException();
+        for (CharSequence element : elements) {
+            add(element);
+        }
+    }
+
+    /**
+     * Adds all of the given strings to this tree.
+     *
+     * @param elements strings
+     */
+    public void addAll(CharSequence... elements) {
+        if (elements == null) throw new NullPointerException();
+        addAll(Arrays.asList(elements));
+    }
+
+    private int childAt(int node, int distance) {
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            if (distancesToParent[child] == distance) return child;
+        }
+        return NONE;
+    }
+
+    private int newNode(CharSequence element, int distanceToParent) {
+        if (size == addresses.length) {
+            int capacity = size + (size >> 1);
+            addresses = Arrays.copyOf(addresses, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            distancesToParent = Arrays.copyOf(distancesToParent, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        }
+
+        int length = element.length();
+        int bytes = length << 1;
+        if (arena == null || arena.remaining() < bytes) {
+            arena = ByteBuffer.allocateDirect(max(arenaSize, bytes)).order(ByteOrder.nativeOrder());
+            arenas.add(arena);
+        }
+
+        int offset = arena.position();
+        for (int i = 0; i < length; ++i) {
+            arena.putChar(element.charAt(i));
+        }
+
+        int node = size++;
+        addresses[node] = (long) (arenas.size() - 1) << 32 | offset;
+        lengths[node] = length;
+        distancesToParent[node] = distanceToParent;
+        firstChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        return node;
+    }
+
+    private TermView view(int node, TermView view) {
+        long address = addresses[node];
+        return view.set(arenas.get((int) (address >>> 32)), (int) address, lengths[node]);
+    }
+
+    private int distance(CharSequence x, CharSequence y) {
+        int distance = metric.distance(x, y);
+        if (distance < 0) {
+            throw new IllegalMetricException(
+                format("negative distance (%d) defined between elements `%s` and `%s`", distance, x, y));
+        }
+        return distance;
+    }
+
+    /**
+     * Searches the tree for strings whose distance from the given query
+     * is less than or equal to the given maximum distance.
+     *
+     * @param query query against which to match tree strings
+     * @param maxDistance non-negative maximum distance of matching strings from query
+     * @return matching strings in no particular order
+     */
+    public Set<Match<String>> search(CharSequence query, int maxDistance) {
+        if (query == null) throw new NullPointerException();
+        if (maxDistance < 0) throw new IllegalArgumentException("maxDistance must be non-negative");
+
+        Set<Match<String>> matches = new HashSet<>();
+        if (size == 0) return matches;
+
+        TermView view = new TermView();
+        int[] stack = new int[16];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+
+            view(node, view);
+            int distance = distance(view, query);
+            if (distance <= maxDistance) {
+                matches.add(new Match<>(view.toString(), distance));
+            }
+
+            int minSearchDistance = distance - maxDistance;
+            int maxSearchDistance = distance + maxDistance;
+
+            for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+                int childDistance = distancesToParent[child];
+                if (childDistance >= minSearchDistance && childDistance <= maxSearchDistance) {
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, stackSize << 1);
+                    }
+                    stack[stackSize++] = child;
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    /** Returns the metric for strings in this tree. */
+    public Metric<? super CharSequence> getMetric() {
+        return metric;
+    }
+
+    /** Returns the number of strings in this tree. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of bytes allocated outside the heap for this tree's strings. */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (ByteBuffer arena : arenas) {
+            bytes += arena.capacity();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("OffHeapStringBkTree{");
+        sb.append("metric=").append(metric);
+        sb.append(", size=").append(size);
+        sb.append(", arenaCount=").append(arenas.size());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /** A view of a string in an arena. */
+    private static final class TermView implements CharSequence {
+        private ByteBuffer arena;
+        private int offset;
+        private int length;
+
+        TermView set(ByteBuffer arena, int offset, int length) {
+            this.arena = arena;
+            this.offset = offset;
+            this.length = length;
+            return this;
+        }
+
+        boolean contentEquals(CharSequence that) {
+            if (length != that.length()) return false;
+            for (int i = 0; i < length; ++i) {
+                if (arena.getChar(offset + (i << 1)) != that.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException();
+            return arena.getChar(offset + (index << 1));
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException();
+            return new TermView().set(arena, offset + (start << 1), end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; ++i) {
+                chars[i] = arena.getChar(offset + (i << 1));
+            }
+            return new String(chars);
+        }
+    }
+}
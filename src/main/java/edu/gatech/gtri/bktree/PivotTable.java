@@ -0,0 +1,286 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
+import javax.annotation.Nullable;
+
+import static edu.gatech.gtri.bktree.BkTree.Node;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+
+/**
+ * A table of the distances between each element of a {@link BkTree} and a
+ * few of its elements chosen as <em>pivots</em>, in the manner of LAESA
+ * (the Linear Approximating and Eliminating Search Algorithm).
+ *
+ * <p>A {@link BkTreeSearcher} given a pivot table computes the distances
+ * between its query and each pivot once per search. By the triangle
+ * inequality, those and the tabled distances bound the distance between the
+ * query and each node's element from below and above, which lets the searcher
+ * rule out nodes and narrow the range of children it visits without calling
+ * the metric. More pivots give tighter bounds at the cost of
+ * {@code pivotCount} metric calls per search and {@code pivotCount} table
+ * entries per node, each taking two bytes if all tabled distances fit in a
+ * {@code short} and four otherwise.
+ *
+ * <p>On top of its entries, each node costs a slot or two in an identity hash
+ * table from nodes to their rows, which is kept at most three quarters full:
+ * a reference and an {@code int} per slot, or about 11 to 32 bytes per node
+ * depending on the table's load and the size of references. With only a few
+ * pivots, this outweighs the entries themselves. The table also keeps every
+ * node in it reachable for as long as the pivot table is.
+ *
+ * <p>Pivots are chosen greedily, each as the element farthest from those
+ * already chosen, so that they're spread throughout the tree.
+ *
+ * <p>A pivot table reflects the tree as it was when the table was built.
+ * Nodes added to a {@link MutableBkTree} since are still searched, just
+ * without the benefit of the table.
+ *
+ * @param <E> type of elements in the tree
+ */
+public final class PivotTable<E> {
+
+    private final List<E> pivots;
+    private final NodeRows rows;
+    private final @Nullable short[] shortDistances;
+    private final @Nullable int[] intDistances;
+
+    private PivotTable(List<E> pivots, NodeRows rows, @Nullable short[] shortDistances, @Nullable int[] intDistances) {
+        this.pivots = Collections.unmodifiableList(pivots);
+        this.rows = rows;
+        this.shortDistances = shortDistances;
+        this.intDistances = intDistances;
+    }
+
+    /**
+     * Builds a pivot table for the given tree, making
+     * {@code pivotCount} metric calls per node.
+     *
+     * @param tree tree whose elements to table
+     * @param pivotCount positive number of pivots
+     */
+    public static <E> PivotTable<E> build(BkTree<E> tree, int pivotCount) {
+        if (tree == null) throw new NullPointerException();
+        if (pivotCount < 1) throw new IllegalArgumentException("pivotCount must be positive");
+
+        Metric<? super E> metric = tree.getMetric();
+
+        List<Node<E>> nodes = new ArrayList<>();
+        if (tree.getRoot() != null) {
+            Queue<Node<E>> queue = new ArrayDeque<>();
+            queue.add(tree.getRoot());
+            while (!queue.isEmpty()) {
+                Node<E> node = queue.remove();
+                nodes.add(node);
+                queue.addAll(node.getChildNodes().values());
+            }
+        }
+
+        int nodeCount = nodes.size();
+        pivotCount = min(pivotCount, nodeCount);
+
+        List<E> pivots = new ArrayList<>(pivotCount);
+        // Distances are tabled as shorts until one doesn't fit, and only
+        // then widened to ints.
+        short[] shortDistances = new short[tableLength(nodeCount, pivotCount)];
+        int[] intDistances = null;
+        int[] minPivotDistances = new int[nodeCount];
+        Arrays.fill(minPivotDistances, Integer.MAX_VALUE);
+
+        int pivotRow = 0;
+        for (int i = 0; i < pivotCount; ++i) {
+            E pivot = nodes.get(pivotRow).getElement();
+            pivots.add(pivot);
+
+            int nextPivotRow = 0;
+            for (int row = 0; row < nodeCount; ++row) {
+                int distance = distance(metric, nodes.get(row).getElement(), pivot);
+                if (intDistances == null && distance > Short.MAX_VALUE) {
+                    intDistances = new int[shortDistances.length];
+                    for (int j = 0; j < shortDistances.length; ++j) {
+                        intDistances[j] = shortDistances[j];
+                    }
+                    shortDistances = null;
+                }
+                if (intDistances == null) {
+                    shortDistances[row * pivotCount + i] = (short) distance;
+                } else {
+                    intDistances[row * pivotCount + i] = distance;
+                }
+
+                minPivotDistances[row] = min(minPivotDistances[row], distance);
+                if (minPivotDistances[row] > minPivotDistances[nextPivotRow]) {
+                    nextPivotRow = row;
+                }
+            }
+            pivotRow = nextPivotRow;
+        }
+
+        NodeRows rows = new NodeRows(rowIndexCapacity(nodeCount));
+        for (int row = 0; row < nodeCount; ++row) {
+            rows.put(nodes.get(row), row);
+        }
+
+        return new PivotTable<>(pivots, rows, shortDistances, intDistances);
+    }
+
+    /**
+     * Returns the number of entries in a table of the given numbers of nodes
+     * and pivots.
+     *
+     * @throws IllegalArgumentException if there are too many entries for an array
+     */
+    static int tableLength(int nodeCount, int pivotCount) {
+        long length = (long) nodeCount * pivotCount;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                format("node count (%d) times pivot count (%d) must be at most %d",
+                    nodeCount, pivotCount, Integer.MAX_VALUE));
+        }
+        return (int) length;
+    }
+
+    /**
+     * Returns the number of slots in the identity hash table of the given
+     * number of nodes, the least power of two at least a third larger.
+     *
+     * @throws IllegalArgumentException if there are too many slots for an array
+     */
+    static int rowIndexCapacity(int nodeCount) {
+        long minCapacity = max(nodeCount + nodeCount / 3L + 1, 2);
+        long capacity = Long.highestOneBit(minCapacity - 1) << 1;
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException(
+                format("node count (%d) must be at most %d", nodeCount, (1 << 30) / 4 * 3 - 1));
+        }
+        return (int) capacity;
+    }
+
+    private static <E> int distance(Metric<? super E> metric, E x, E y) {
+        int distance = metric.distance(x, y);
+        if (distance < 0) {
+            throw new IllegalMetricException(
+                format("negative distance (%d) defined between elements `%s` and `%s`", distance, x, y));
+        }
+        return distance;
+    }
+
+    /** Returns the pivots of this table. */
+    public List<E> getPivots() {
+        return pivots;
+    }
+
+    /**
+     * Returns the distances between the given query and each pivot, as
+     * needed by {@link #bounds}.
+     */
+    int[] pivotDistances(Metric<? super E> metric, E query) {
+        int[] pivotDistances = new int[pivots.size()];
+        for (int i = 0; i < pivotDistances.length; ++i) {
+            pivotDistances[i] = distance(metric, pivots.get(i), query);
+        }
+        return pivotDistances;
+    }
+
+    /** Returns the row of the given node, or {@code -1} if the node isn't in this table. */
+    int row(Node<E> node) {
+        return rows.get(node);
+    }
+
+    /**
+     * Returns the lower bound, in the high 32 bits, and the upper bound, in
+     * the low 32 bits, on the distance between the query and the element of
+     * the node in the given row.
+     *
+     * @param row row of a node
+     * @param pivotDistances distances between the query and each pivot
+     */
+    long bounds(int row, int[] pivotDistances) {
+        int lower = 0;
+        int upper = Integer.MAX_VALUE;
+        int offset = row * pivotDistances.length;
+
+        if (shortDistances != null) {
+            for (int i = 0; i < pivotDistances.length; ++i) {
+                int distance = shortDistances[offset + i];
+                lower = max(lower, abs(pivotDistances[i] - distance));
+                upper = min(upper, pivotDistances[i] + distance);
+            }
+        } else {
+            for (int i = 0; i < pivotDistances.length; ++i) {
+                int distance = intDistances[offset + i];
+                lower = max(lower, abs(pivotDistances[i] - distance));
+                upper = min(upper, pivotDistances[i] + distance);
+            }
+        }
+
+        return (long) lower << 32 | upper;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PivotTable{");
+        sb.append("pivots=").append(pivots);
+        sb.append(", nodeCount=").append(rows.size);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /** An open-addressing identity map from nodes to their rows. */
+    private static final class NodeRows {
+        final Object[] nodes;
+        final int[] rows;
+        int size;
+
+        /** @param capacity power of two greater than the number of nodes to be put */
+        NodeRows(int capacity) {
+            nodes = new Object[capacity];
+            rows = new int[capacity];
+        }
+
+        void put(Object node, int row) {
+            int i = indexOf(node);
+            if (nodes[i] == null) ++size;
+            nodes[i] = node;
+            rows[i] = row;
+        }
+
+        int get(Object node) {
+            int i = indexOf(node);
+            return nodes[i] == null ? -1 : rows[i];
+        }
+
+        private int indexOf(Object node) {
+            int mask = nodes.length - 1;
+            int i = System.identityHashCode(node) * 0x9E3779B9 & mask;
+            while (nodes[i] != null && nodes[i] != node) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+
+import static edu.gatech.gtri.bktree.BkTree.Node;
+import static edu.gatech.gtri.bktree.BkTreeSearcher.distance;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+/**
+ * Estimates the cost of searching a {@link BkTree}, as the fraction of its
+ * elements whose distance from the query a search computes, from a sample of
+ * probe queries drawn from the tree's own elements.
+ *
+ * <p>For large search distances, a search computes the distance to nearly
+ * every element anyway, and the overhead of walking the tree makes it slower
+ * than computing the distance to every element in a flat array. A
+ * {@link BkTreeSearcher} given an estimator therefore scans the estimator's
+ * array of the tree's elements instead of the tree whenever the estimated
+ * fraction reaches the estimator's {@linkplain #getLinearScanThreshold()
+ * linear scan threshold}. Callers may also use the estimates to reject or
+ * route expensive queries.
+ *
+ * <p>An estimator reflects the tree as it was when the estimator was built.
+ * Searchers stop scanning the estimator's array once the tree has changed
+ * since; estimates are then merely less accurate. They never scan the array
+ * of a tree whose changes can't be detected, i.e., one of a type other than
+ * those in this package.
+ *
+ * @param <E> type of elements in the tree
+ */
+public final class QueryCostEstimator<E> {
+
+    /** The sample size used by {@link #build(BkTree, int)}. */
+    public static final int DEFAULT_SAMPLE_SIZE = 32;
+
+    /** The linear scan threshold used by {@link #build(BkTree, int)}. */
+    public static final double DEFAULT_LINEAR_SCAN_THRESHOLD = 0.8;
+
+    private final BkTree<E> tree;
+    private final Object[] elements;
+    private final long modificationCount;
+    private final double[] visitedFractions;
+    private final double linearScanThreshold;
+
+    private QueryCostEstimator(
+        BkTree<E> tree, Object[] elements, long modificationCount, double[] visitedFractions,
+        double linearScanThreshold) {
+
+        this.tree = tree;
+        this.elements = elements;
+        this.modificationCount = modificationCount;
+        this.visitedFractions = visitedFractions;
+        this.linearScanThreshold = linearScanThreshold;
+    }
+
+    /**
+     * Builds an estimator for the given tree from
+     * {@link #DEFAULT_SAMPLE_SIZE} probe queries, with the
+     * {@linkplain #DEFAULT_LINEAR_SCAN_THRESHOLD default linear scan threshold}.
+     *
+     * @param tree tree whose search costs to estimate
+     * @param maxDistance non-negative largest search distance to estimate costs for
+     */
+    public static <E> QueryCostEstimator<E> build(BkTree<E> tree, int maxDistance) {
+        return build(tree, maxDistance, DEFAULT_SAMPLE_SIZE, DEFAULT_LINEAR_SCAN_THRESHOLD);
+    }
+
+    /**
+     * Builds an estimator for the given tree.
+     *
+     * <p>Each probe query walks the part of the tree that a search with the
+     * given maximum distance would, recording for each element the smallest
+     * search distance at which its distance from the query is computed, so
+     * the costs for all search distances are sampled at once.
+     *
+     * @param tree tree whose search costs to estimate
+     * @param maxDistance non-negative largest search distance to estimate costs for
+     * @param sampleSize positive number of probe queries
+     * @param linearScanThreshold estimated fraction of elements at or above
+     * which searchers scan the elements linearly, where 1 is every element
+     */
+    public static <E> QueryCostEstimator<E> build(
+        BkTree<E> tree, int maxDistance, int sampleSize, double linearScanThreshold) {
+
+        if (tree == null) throw new NullPointerException();
+        if (maxDistance < 0) throw new IllegalArgumentException("maxDistance must be non-negative");
+        if (sampleSize < 1) throw new IllegalArgumentException("sampleSize must be positive");
+        if (!(linearScanThreshold > 0)) throw new IllegalArgumentException("linearScanThreshold must be positive");
+
+        long modificationCount = modificationCount(tree);
+        Object[] elements = BkTrees.stream(tree).toArray();
+
+        long[] visits = new long[maxDistance + 1];
+        if (elements.length > 0) {
+            Random random = new Random(elements.length);
+            for (int i = 0; i < sampleSize; ++i) {
+                @SuppressWarnings("unchecked")
+                E query = (E) elements[random.nextInt(elements.length)];
+                probe(tree, query, visits);
+            }
+        }
+
+        double[] visitedFractions = new double[maxDistance + 1];
+        long cumulativeVisits = 0;
+        for (int distance = 0; distance <= maxDistance; ++distance) {
+            cumulativeVisits += visits[distance];
+            visitedFractions[distance] = elements.length == 0
+                ? 0 : (double) cumulativeVisits / sampleSize / elements.length;
+        }
+
+        return new QueryCostEstimator<>(tree, elements, modificationCount, visitedFractions, linearScanThreshold);
+    }
+
+    /**
+     * Counts, for each search distance up to the length of the given array,
+     * the elements whose distance from the given query a search first
+     * computes at that distance.
+     */
+    private static <E> void probe(BkTree<E> tree, E query, long[] visits) {
+        Metric<? super E> metric = tree.getMetric();
+        int maxDistance = visits.length - 1;
+
+        // A node's search distance is the smallest at which it's visited.
+        Queue<Node<E>> queue = new ArrayDeque<>();
+        Queue<Integer> searchDistances = new ArrayDeque<>();
+        queue.add(tree.getRoot());
+        searchDistances.add(0);
+
+        while (!queue.isEmpty()) {
+            Node<E> node = queue.remove();
+            int searchDistance = searchDistances.remove();
+            ++visits[searchDistance];
+
+            int distance = distance(metric, node.getElement(), query);
+
+            for (int i = 0, length = node.getBucketLength(); i < length; ++i) {
+                int bucketSearchDistance = max(searchDistance, abs(distance - node.getBucketDistance(i)));
+                if (bucketSearchDistance <= maxDistance) {
+                    ++visits[bucketSearchDistance];
+                }
+            }
+
+            for (Map.Entry<Integer, ? extends Node<E>> child : node.getChildNodes().entrySet()) {
+                int childSearchDistance = max(searchDistance, abs(distance - child.getKey()));
+                if (childSearchDistance <= maxDistance) {
+                    queue.add(child.getValue());
+                    searchDistances.add(childSearchDistance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the {@linkplain ModificationCounted modification count} of the
+     * given tree, or {@code -1} if changes to the tree can't be detected.
+     */
+    private static long modificationCount(BkTree<?> tree) {
+        return tree instanceof ModificationCounted ? ((ModificationCounted) tree).modificationCount() : -1;
+    }
+
+    /**
+     * Returns the estimated fraction of the tree's elements whose distance
+     * from the query a search computes, where 1 is every element.
+     *
+     * @param maxDistance non-negative maximum distance of the search; searches
+     * beyond the largest distance the estimator was built for are assumed to
+     * compute every distance
+     */
+    public double estimateVisitedFraction(int maxDistance) {
+        if (maxDistance < 0) throw new IllegalArgumentException("maxDistance must be non-negative");
+        return maxDistance < visitedFractions.length ? visitedFractions[maxDistance] : 1;
+    }
+
+    /**
+     * Returns the estimated number of metric calls made by a search.
+     *
+     * @param maxDistance non-negative maximum distance of the search
+     * @see #estimateVisitedFraction(int)
+     */
+    public double estimateMetricCalls(int maxDistance) {
+        return estimateVisitedFraction(maxDistance) * elements.length;
+    }
+
+    /** Returns the estimated fraction of elements at or above which searchers scan the elements linearly. */
+    public double getLinearScanThreshold() {
+        return linearScanThreshold;
+    }
+
+    /** Returns the tree whose search costs this estimator estimates. */
+    public BkTree<E> getTree() {
+        return tree;
+    }
+
+    /**
+     * Returns whether a search should scan {@link #getElements()} rather
+     * than the tree, i.e., whether it's expected to be cheaper and the
+     * elements are still those of the tree.
+     */
+    boolean prefersLinearScan(int maxDistance) {
+        if (estimateVisitedFraction(maxDistance) < linearScanThreshold) return false;
+        return modificationCount >= 0 && modificationCount(tree) == modificationCount;
+    }
+
+    /** Returns the tree's elements as of when this estimator was built. Must not be modified. */
+    Object[] getElements() {
+        return elements;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("QueryCostEstimator{");
+        sb.append("elementCount=").append(elements.length);
+        sb.append(", linearScanThreshold=").append(linearScanThreshold);
+        sb.append(", visitedFractions=").append(Arrays.toString(visitedFractions));
+        sb.append('}');
+        return sb.toString();
+    }
+}
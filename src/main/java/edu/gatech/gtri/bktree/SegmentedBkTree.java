@@ -0,0 +1,373 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import static edu.gatech.gtri.bktree.BkTreeSearcher.Match;
+import static edu.gatech.gtri.bktree.MutableBkTree.MutableNode;
+
+/**
+ * A BK-tree index made of several {@linkplain MutableBkTree trees}, or
+ * <em>segments</em>, in the manner of a log-structured merge tree.
+ *
+ * <p>New elements are added to a small <em>active</em> tree, which is frozen
+ * into an immutable segment once it holds {@code segmentSize} elements. A
+ * background thread merges segments of similar size, {@code mergeFactor} at a
+ * time, into a larger tree built from their elements in random order, which
+ * tends to be better balanced than one built in insertion order. Additions
+ * therefore only ever touch a small tree, while the number of segments, and
+ * so the cost of {@linkplain #search searches}, which consult every segment,
+ * stays logarithmic in the number of elements.
+ *
+ * <p>Unlike the other trees in this package, segmented trees are thread-safe:
+ * additions, searches and merges may all proceed concurrently. Each element
+ * is held by exactly one segment or the active tree, so adding an element
+ * again has no effect wherever it's held.
+ *
+ * <p>A merge runs in the background, so an exception it throws, such as an
+ * {@link IllegalMetricException}, is rethrown by the next {@link #add} or
+ * {@link #close} instead, wrapped in an {@link IllegalStateException}.
+ * The merging thread is started by the first merge and exits once it has
+ * been idle for a second, so a tree that's never closed holds no thread
+ * while it's not merging.
+ *
+ * @param <E> type of elements in this tree
+ */
+public final class SegmentedBkTree<E> implements Closeable {
+
+    /** The segment size used by {@link #SegmentedBkTree(Metric)}. */
+    public static final int DEFAULT_SEGMENT_SIZE = 4096;
+
+    /** The merge factor used by {@link #SegmentedBkTree(Metric)}. */
+    public static final int DEFAULT_MERGE_FACTOR = 4;
+
+    static final String MERGER_THREAD_NAME = "bk-tree-merger";
+    static final long MERGER_KEEP_ALIVE_SECONDS = 1;
+
+    private final Metric<? super E> metric;
+    private final int segmentSize;
+    private final int mergeFactor;
+
+    private final ReadWriteLock activeLock = new ReentrantReadWriteLock();
+    private MutableBkTree<E> active;
+
+    private final Object segmentsLock = new Object();
+    private volatile List<Segment<E>> segments = Collections.emptyList();
+
+    private final ThreadPoolExecutor merger = new ThreadPoolExecutor(
+        1, 1, MERGER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, MERGER_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    private final Random random = new Random();
+    private volatile @Nullable RuntimeException mergeFailure;
+
+    /**
+     * Constructs a tree with the {@linkplain #DEFAULT_SEGMENT_SIZE default
+     * segment size} and {@linkplain #DEFAULT_MERGE_FACTOR merge factor}.
+     *
+     * @param metric metric for elements in this tree
+     */
+    public SegmentedBkTree(Metric<? super E> metric) {
+        this(metric, DEFAULT_SEGMENT_SIZE, DEFAULT_MERGE_FACTOR);
+    }
+
+    /**
+     * @param metric metric for elements in this tree
+     * @param segmentSize positive number of elements at which the active tree is frozen
+     * @param mergeFactor number, at least two, of segments merged at once
+     */
+    public SegmentedBkTree(Metric<? super E> metric, int segmentSize, int mergeFactor) {
+        if (metric == null) throw new NullPointerException();
+        if (segmentSize < 1) throw new IllegalArgumentException("segmentSize must be positive");
+        if (mergeFactor < 2) throw new IllegalArgumentException("mergeFactor must be at least 2");
+        this.metric = metric;
+        this.segmentSize = segmentSize;
+        this.mergeFactor = mergeFactor;
+        this.active = new MutableBkTree<>(metric);
+        merger.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Adds the given element to this tree, if it's not already present.
+     *
+     * @param element element
+     * @throws IllegalStateException if a merge has failed
+     */
+    public void add(E element) {
+        if (element == null) throw new NullPointerException();
+        checkMergeFailure();
+
+        activeLock.writeLock().lock();
+        try {
+            // Segments are only replaced by merges of them, which keep
+            // their elements, so an element can't leave them meanwhile.
+            for (Segment<E> segment : segments) {
+                if (segment.tree.contains(element)) return;
+            }
+
+            active.add(element);
+            if (active.size() >= segmentSize) {
+                freeze();
+            }
+        } finally {
+            activeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds all of the given elements to this tree.
+     *
+     * @param elements elements
+     */
+    public void addAll(Iterable<? extends E> elements) {
+        if (elements == null) throw new NullPointerException();
+        for (E element : elements) {
+            add(element);
+        }
+    }
+
+    /**
+     * Adds all of the given elements to this tree.
+     *
+     * @param elements elements
+     */
+    @SafeVarargs
+    public final void addAll(E... elements) {
+        if (elements == null) throw new NullPointerException();
+        addAll(Arrays.asList(elements));
+    }
+
+    /** Turns the active tree into a segment. Must hold the active tree's write lock. */
+    private void freeze() {
+        synchronized (segmentsLock) {
+            List<Segment<E>> frozen = new ArrayList<>(segments);
+            frozen.add(new Segment<>(active));
+            segments = Collections.unmodifiableList(frozen);
+        }
+        active = new MutableBkTree<>(metric);
+
+        if (mergeFailure != null) return;
+
+        try {
+            merger.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        merge();
+                    } catch (RuntimeException e) {
+                        mergeFailure = e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed, so the segment is left unmerged
+        }
+    }
+
+    /**
+     * Merges segments of the same tier for as long as any tier holds
+     * {@link #mergeFactor} of them.
+     */
+    private void merge() {
+        while (true) {
+            List<Segment<E>> merged = selectMerge(segments);
+            if (merged == null) return;
+
+            List<E> elements = new ArrayList<>();
+            for (Segment<E> segment : merged) {
+                collectElements(segment.tree, elements);
+            }
+            Collections.shuffle(elements, random);
+
+            MutableBkTree<E> tree = new MutableBkTree<>(metric);
+            tree.addAll(elements);
+
+            synchronized (segmentsLock) {
+                List<Segment<E>> remaining = new ArrayList<>(segments);
+                remaining.removeAll(merged);
+                remaining.add(new Segment<>(tree));
+                segments = Collections.unmodifiableList(remaining);
+            }
+        }
+    }
+
+    /**
+     * Returns {@link #mergeFactor} segments of the lowest tier that has that
+     * many, or {@code null} if there is no such tier. A segment's tier is the
+     * number of times segments must be merged to reach its size, so merging
+     * only within tiers merges each element a logarithmic number of times.
+     */
+    private @Nullable List<Segment<E>> selectMerge(List<Segment<E>> segments) {
+        List<List<Segment<E>>> tiers = new ArrayList<>();
+        for (Segment<E> segment : segments) {
+            int tier = 0;
+            for (long size = segmentSize; size * mergeFactor <= segment.size; size *= mergeFactor) {
+                ++tier;
+            }
+            while (tiers.size() <= tier) {
+                tiers.add(new ArrayList<Segment<E>>());
+            }
+            tiers.get(tier).add(segment);
+        }
+
+        for (List<Segment<E>> tier : tiers) {
+            if (tier.size() >= mergeFactor) {
+                return tier.subList(0, mergeFactor);
+            }
+        }
+        return null;
+    }
+
+    private static <E> void collectElements(MutableBkTree<E> tree, List<E> elements) {
+        if (tree.root == null) return;
+
+        Queue<MutableNode<E>> queue = new ArrayDeque<>();
+        queue.add(tree.root);
+        while (!queue.isEmpty()) {
+            MutableNode<E> node = queue.remove();
+            elements.add(node.element);
+            queue.addAll(node.childrenByDistance.values());
+        }
+    }
+
+    /**
+     * Searches every segment of this tree for elements whose distance from
+     * the given query is less than or equal to the given maximum distance.
+     *
+     * @param query query against which to match tree elements
+     * @param maxDistance non-negative maximum distance of matching elements from query
+     * @return matching elements in no particular order
+     */
+    public Set<Match<? extends E>> search(E query, int maxDistance) {
+        if (query == null) throw new NullPointerException();
+        if (maxDistance < 0) throw new IllegalArgumentException("maxDistance must be non-negative");
+
+        Set<Match<? extends E>> matches = new HashSet<>();
+        List<Segment<E>> searched;
+
+        activeLock.readLock().lock();
+        try {
+            searched = segments;
+            if (active.root != null) {
+                matches.addAll(new BkTreeSearcher<>(active).search(query, maxDistance));
+            }
+        } finally {
+            activeLock.readLock().unlock();
+        }
+
+        for (Segment<E> segment : searched) {
+            matches.addAll(new BkTreeSearcher<>(segment.tree).search(query, maxDistance));
+        }
+
+        return matches;
+    }
+
+    private void checkMergeFailure() {
+        RuntimeException failure = mergeFailure;
+        if (failure != null) throw new IllegalStateException("merging segments failed", failure);
+    }
+
+    /** Returns the metric for elements in this tree. */
+    public Metric<? super E> getMetric() {
+        return metric;
+    }
+
+    /** Returns the number of elements in this tree. */
+    public int size() {
+        activeLock.readLock().lock();
+        try {
+            int size = active.size();
+            for (Segment<E> segment : segments) {
+                size += segment.size;
+            }
+            return size;
+        } finally {
+            activeLock.readLock().unlock();
+        }
+    }
+
+    /** Returns the number of frozen segments in this tree. */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Stops merging segments, waiting for any merge in progress to finish.
+     * The tree remains usable, but segments frozen after it's closed are no
+     * longer merged. Closing isn't needed to release the merging thread, which
+     * exits by itself when idle, but is the only way to wait for merges.
+     *
+     * @throws IllegalStateException if a merge has failed
+     */
+    @Override
+    public void close() {
+        merger.shutdown();
+        try {
+            merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkMergeFailure();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SegmentedBkTree{");
+        sb.append("metric=").append(metric);
+        sb.append(", segmentSize=").append(segmentSize);
+        sb.append(", mergeFactor=").append(mergeFactor);
+        sb.append(", segmentCount=").append(getSegmentCount());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /** A frozen tree, which is never mutated again, and its number of elements. */
+    private static final class Segment<E> {
+        final MutableBkTree<E> tree;
+        final int size;
+
+        Segment(MutableBkTree<E> tree) {
+            this.tree = tree;
+            this.size = tree.size();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static edu.gatech.gtri.bktree.BkTreeMap.Match;
+import static org.testng.Assert.*;
+
+public class BkTreeMapTest {
+
+    BkTreeMap<String, Integer> map;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        map = new BkTreeMap<>(new LengthDifference());
+        map.put("book", 1);
+        map.put("books", 2);
+        map.put("nook", 3);
+        map.put("book", 4);
+        map.put("bo", 5);
+    }
+
+    @Test
+    public void put_existing_key_should_append_value() throws Exception {
+        assertEquals(map.get("book"), ImmutableList.of(1, 4));
+        assertEquals(map.size(), 4);
+    }
+
+    @Test
+    public void get_absent_key_should_return_empty_list() throws Exception {
+        assertEquals(map.get("nooks"), ImmutableList.of());
+        assertFalse(map.containsKey("nooks"));
+    }
+
+    @Test
+    public void search_should_return_keys_with_values_and_distances() throws Exception {
+        Map<String, Match<String, Integer>> matches = matchesByKey(map.search("hook", 1));
+
+        assertEquals(matches.keySet(), ImmutableSet.of("book", "books", "nook"));
+        assertEquals(matches.get("book").getValues(), ImmutableList.of(1, 4));
+        assertEquals(matches.get("book").getDistance(), 0);
+        assertEquals(matches.get("books").getValues(), ImmutableList.of(2));
+        assertEquals(matches.get("books").getDistance(), 1);
+        assertEquals(matches.get("nook").getValues(), ImmutableList.of(3));
+        assertEquals(matches.get("nook").getDistance(), 0);
+    }
+
+    @Test
+    public void search_with_pivot_table_should_return_keys_with_values() throws Exception {
+        BkTreeSearcher<String> searcher = new BkTreeSearcher<>(map, PivotTable.build(map, 2));
+        Map<String, Match<String, Integer>> matches = matchesByKey(map.search(searcher, "hook", 0));
+
+        assertEquals(matches.keySet(), ImmutableSet.of("book", "nook"));
+        assertEquals(matches.get("book").getValues(), ImmutableList.of(1, 4));
+        assertEquals(matches.get("nook").getValues(), ImmutableList.of(3));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void search_with_searcher_of_other_tree_should_throw() throws Exception {
+        map.search(new BkTreeSearcher<>(new MutableBkTree<String>(new LengthDifference())), "hook", 0);
+    }
+
+    @Test
+    public void search_empty_map_should_match_nothing() throws Exception {
+        assertEquals(new BkTreeMap<String, Integer>(new LengthDifference()).search("hook", 1), ImmutableSet.of());
+    }
+
+    @Test
+    public void search_with_searcher_should_return_keys() throws Exception {
+        assertEquals(new BkTreeSearcher<>(map).search("hook", 0), ImmutableSet.of(
+            new BkTreeSearcher.Match<>("book", 0),
+            new BkTreeSearcher.Match<>("nook", 0)
+        ));
+    }
+
+    @Test(expectedExceptions = IllegalMetricException.class)
+    public void put_two_keys_with_negative_distance_should_throw() throws Exception {
+        BkTreeMap<Object, Object> map = new BkTreeMap<>(new NegativeOneMetric());
+        map.put(new Object(), 1);
+        map.put(new Object(), 2);
+    }
+
+    static Map<String, Match<String, Integer>> matchesByKey(Set<Match<String, Integer>> matches) {
+        Map<String, Match<String, Integer>> matchesByKey = new HashMap<>();
+        for (Match<String, Integer> match : matches) {
+            assertNull(matchesByKey.put(match.getKey(), match), match.getKey());
+        }
+        return matchesByKey;
+    }
+
+}
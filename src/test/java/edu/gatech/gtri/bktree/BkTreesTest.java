@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class BkTreesTest {
+
+    static Set<String> elements(int count) {
+        Set<String> elements = new HashSet<>();
+        for (int i = 0; i < count; ++i) {
+            elements.add(Integer.toString(i, 3));
+        }
+        return elements;
+    }
+
+    @Test
+    public void stream_should_contain_every_element_once() throws Exception {
+        MutableBkTree<String> tree = new MutableBkTree<>(new LengthDifference());
+        tree.addAll(elements(1000));
+
+        List<String> streamed = BkTrees.stream(tree).parallel().collect(Collectors.toList());
+        assertEquals(streamed.size(), 1000);
+        assertEquals(new HashSet<>(streamed), elements(1000));
+    }
+
+    @Test
+    public void stream_should_contain_bucketed_elements() throws Exception {
+        BucketedBkTree<String> tree = new BucketedBkTree<>(new LengthDifference(), 8);
+        tree.addAll(elements(1000));
+
+        List<String> streamed = BkTrees.stream(tree).parallel().collect(Collectors.toList());
+        assertEquals(streamed.size(), 1000);
+        assertEquals(new HashSet<>(streamed), elements(1000));
+    }
+
+    @Test
+    public void stream_of_empty_tree_should_be_empty() throws Exception {
+        assertEquals(BkTrees.stream(new MutableBkTree<>(new LengthDifference())).count(), 0);
+    }
+
+    @Test
+    public void stream_of_node_should_contain_elements_of_its_subtree() throws Exception {
+        BucketedBkTree<String> tree = new BucketedBkTree<>(new LengthDifference(), 3);
+        tree.addAll("book", "books", "bookies", "nook", "nooks", "roo");
+
+        assertEquals(BkTrees.stream(tree.getRoot().getChildNode(1)).collect(Collectors.toSet()),
+            ImmutableSet.of("books", "nooks", "roo"));
+        assertEquals(BkTrees.stream(tree.getRoot()).count(), 6);
+    }
+
+    @Test
+    public void split_spliterators_should_partition_elements() throws Exception {
+        MutableBkTree<String> tree = new MutableBkTree<>(new LengthDifference());
+        tree.addAll("book", "books", "bookies", "nook", "nooks", "noik", "noo", "roo");
+
+        Spliterator<String> spliterator = BkTrees.spliterator(tree);
+        Spliterator<String> split = spliterator.trySplit();
+        assertNotNull(split);
+
+        List<String> elements = new ArrayList<>();
+        split.forEachRemaining(elements::add);
+        int splitCount = elements.size();
+        spliterator.forEachRemaining(elements::add);
+
+        assertTrue(splitCount > 0 && splitCount < 8, "split off " + splitCount + " of 8 elements");
+        assertEquals(elements.size(), 8);
+        assertEquals(new HashSet<>(elements),
+            ImmutableSet.of("book", "books", "bookies", "nook", "nooks", "noik", "noo", "roo"));
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.HashMap;
+
+import org.testng.annotations.Test;
+
+import static edu.gatech.gtri.bktree.BucketedBkTree.BucketedNode;
+import static edu.gatech.gtri.bktree.SearchTests.assertSameMatches;
+import static edu.gatech.gtri.bktree.SearchTests.randomStrings;
+import static org.testng.Assert.*;
+
+public class BucketedBkTreeTest {
+
+    @Test
+    public void add_should_fill_buckets_and_split_them_when_full() throws Exception {
+        LengthDifference distance = new LengthDifference();
+        BucketedBkTree<String> tree = new BucketedBkTree<>(distance, 3);
+        tree.add("book");
+        tree.add("books");
+        tree.add("bookies");
+        tree.add("nook");
+        tree.add("nooks");
+        tree.add("roo");
+        tree.add("roo");
+
+        BucketedNode<String> book = new BucketedNode<>("book");
+        book.childrenByDistance = new HashMap<>();
+        book.childrenByDistance.put(0, new BucketedNode<>("nook"));
+        BucketedNode<String> books = new BucketedNode<>("books");
+        books.addToBucket("nooks", 0, 2);
+        books.addToBucket("roo", 2, 2);
+        book.childrenByDistance.put(1, books);
+        book.childrenByDistance.put(3, new BucketedNode<>("bookies"));
+
+        BucketedBkTree<String> expected = new BucketedBkTree<>(distance, 3);
+        expected.root = book;
+
+        assertEquals(tree, expected);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void non_positive_bucket_size_should_throw() throws Exception {
+        new BucketedBkTree<>(new LengthDifference(), 0);
+    }
+
+    @Test(expectedExceptions = IllegalMetricException.class)
+    public void add_two_elements_with_negative_distance_should_throw() throws Exception {
+        BucketedBkTree<Object> tree = new BucketedBkTree<>(new NegativeOneMetric());
+        tree.add(new Object());
+        tree.add(new Object());
+    }
+
+    @Test
+    public void bucketed_elements_should_be_reachable_through_node() throws Exception {
+        BucketedBkTree<String> tree = new BucketedBkTree<>(new LengthDifference(), 3);
+        tree.addAll("book", "books", "bookies", "nook", "nooks", "roo");
+
+        assertEquals(tree.getRoot().getBucketLength(), 0);
+
+        BkTree.Node<String> books = tree.getRoot().getChildNode(1);
+        assertEquals(books.getBucketLength(), 2);
+        assertEquals(books.getBucketElement(0), "nooks");
+        assertEquals(books.getBucketDistance(0), 0);
+        assertEquals(books.getBucketElement(1), "roo");
+        assertEquals(books.getBucketDistance(1), 2);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void get_bucket_element_past_bucket_length_should_throw() throws Exception {
+        BucketedBkTree<String> tree = new BucketedBkTree<>(new LengthDifference(), 3);
+        tree.addAll("book", "books");
+        tree.getRoot().getBucketElement(1);
+    }
+
+    @Test
+    public void search_should_match_same_elements_as_unbucketed_tree() throws Exception {
+        MutableBkTree<String> unbucketed = new MutableBkTree<>(new LengthDifference());
+        BucketedBkTree<String> bucketed = new BucketedBkTree<>(new LengthDifference(), 4);
+        for (String element : randomStrings(0, 1000, 5)) {
+            unbucketed.add(element);
+            bucketed.add(element);
+        }
+
+        assertSameMatches(new BkTreeSearcher<>(unbucketed), new BkTreeSearcher<>(bucketed)::search);
+    }
+
+}
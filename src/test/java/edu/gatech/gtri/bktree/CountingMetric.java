@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+/** A metric that counts its calls, which it delegates to another metric. */
+final class CountingMetric<E> implements Metric<E> {
+    private final Metric<? super E> metric;
+    int calls;
+
+    CountingMetric(Metric<? super E> metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public int distance(E x, E y) {
+        ++calls;
+        return metric.distance(x, y);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.testng.Assert.*;
+
+public class DurableBkTreeTest {
+
+    final LengthDifference distance = new LengthDifference();
+    Path directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("bk-tree");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    DurableBkTree<String> open() throws IOException {
+        return DurableBkTree.open(directory, distance, ElementSerializers.stringSerializer(), 2);
+    }
+
+    static void assertElements(DurableBkTree<String> tree, String... elements) {
+        assertEquals(tree.size(), elements.length);
+        for (String element : elements) {
+            assertTrue(tree.contains(element), element);
+        }
+    }
+
+    @Test
+    public void reopen_should_replay_log() throws Exception {
+        try (DurableBkTree<String> tree = open()) {
+            tree.addAll("book", "books", "bookies", "nook", "nooks");
+        }
+
+        try (DurableBkTree<String> tree = open()) {
+            assertElements(tree, "book", "books", "bookies", "nook", "nooks");
+        }
+    }
+
+    @Test
+    public void reopen_should_load_image_and_replay_log_tail() throws Exception {
+        try (DurableBkTree<String> tree = open()) {
+            tree.addAll("book", "books", "bookies");
+            tree.checkpoint();
+            tree.addAll("nook", "nooks");
+        }
+
+        try (DurableBkTree<String> tree = open()) {
+            assertElements(tree, "book", "books", "bookies", "nook", "nooks");
+        }
+    }
+
+    @Test
+    public void checkpoint_should_truncate_log() throws Exception {
+        try (DurableBkTree<String> tree = open()) {
+            tree.addAll("book", "books", "bookies");
+            tree.checkpoint();
+            assertEquals(Files.size(directory.resolve(DurableBkTree.LOG_FILE_NAME)), 0);
+        }
+    }
+
+    @Test
+    public void reopen_should_discard_torn_record_at_end_of_log() throws Exception {
+        try (DurableBkTree<String> tree = open()) {
+            tree.addAll("book", "books");
+        }
+        Path log = directory.resolve(DurableBkTree.LOG_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(log, WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        try (DurableBkTree<String> tree = open()) {
+            assertElements(tree, "book");
+            tree.add("nook");
+        }
+
+        try (DurableBkTree<String> tree = open()) {
+            assertElements(tree, "book", "nook");
+        }
+    }
+
+    @Test
+    public void add_after_failed_serialization_should_log_element() throws Exception {
+        final ElementSerializer<String> serializer = ElementSerializers.stringSerializer();
+        ElementSerializer<String> failingOnceSerializer = new ElementSerializer<String>() {
+            boolean failed;
+
+            @Override
+            public void write(String element, DataOutput out) throws IOException {
+                if (!failed) {
+                    failed = true;
+                    throw new IOException("failed once");
+                }
+                serializer.write(element, out);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return serializer.read(in);
+            }
+        };
+
+        try (DurableBkTree<String> tree = DurableBkTree.open(directory, distance, failingOnceSerializer, 2)) {
+            try {
+                tree.add("book");
+                fail();
+            } catch (IOException e) {
+                assertElements(tree);
+            }
+            tree.add("book");
+        }
+
+        try (DurableBkTree<String> tree = open()) {
+            assertElements(tree, "book");
+        }
+    }
+
+    @Test
+    public void add_element_with_negative_distance_should_not_log_it() throws Exception {
+        NegativeOneMetric metric = new NegativeOneMetric();
+
+        try (DurableBkTree<String> tree = DurableBkTree.open(directory, metric, ElementSerializers.stringSerializer())) {
+            tree.add("book");
+            try {
+                tree.add("nook");
+                fail();
+            } catch (IllegalMetricException e) {
+                assertElements(tree, "book");
+            }
+        }
+
+        try (DurableBkTree<String> tree = DurableBkTree.open(directory, metric, ElementSerializers.stringSerializer())) {
+            assertElements(tree, "book");
+        }
+    }
+
+}
@@ -53,8 +53,7 @@ public class MutableBkTreeTest {
         MutableNode<String> roo = new MutableNode<>("roo");
         noo.childrenByDistance.put(0, roo);
 
-        MutableBkTree<String> expected = new MutableBkTree<>(distance);
-        expected.root = book;
+        MutableBkTree<String> expected = new MutableBkTree<>(distance, book);
 
         assertEquals(tree, expected);
     }
@@ -66,4 +65,52 @@ public class MutableBkTreeTest {
         tree.add(new Object());
     }
 
+    @Test
+    public void add_existing_element_should_not_call_metric() throws Exception {
+        MutableBkTree<Object> tree = new MutableBkTree<>(new NegativeOneMetric());
+        Object element = new Object();
+        tree.add(element);
+        tree.add(element);
+        assertTrue(tree.contains(element));
+        assertFalse(tree.contains(new Object()));
+        assertEquals(tree.size(), 1);
+    }
+
+    @Test
+    public void trees_with_same_structure_should_be_equal_and_have_same_hash_code() throws Exception {
+        LengthDifference distance = new LengthDifference();
+        MutableBkTree<String> tree = new MutableBkTree<>(distance);
+        tree.addAll("book", "books", "nook", "nooks");
+        MutableBkTree<String> sameStructure = new MutableBkTree<>(distance);
+        sameStructure.addAll("book", "nook", "books", "nooks");
+        MutableBkTree<String> otherStructure = new MutableBkTree<>(distance);
+        otherStructure.addAll("nook", "book", "books", "nooks");
+
+        assertEquals(tree, sameStructure);
+        assertEquals(tree.hashCode(), sameStructure.hashCode());
+        assertEquals(tree.hashCode(), new MutableBkTree<>(distance, tree.root).hashCode());
+        assertNotEquals(tree, otherStructure);
+    }
+
+    @Test
+    public void equals_and_hash_code_should_handle_very_deep_trees() throws Exception {
+        NegativeOneMetric metric = new NegativeOneMetric();
+        MutableBkTree<Integer> tree = new MutableBkTree<>(metric, chain(100000));
+        MutableBkTree<Integer> sameStructure = new MutableBkTree<>(metric, chain(100000));
+
+        assertEquals(tree, sameStructure);
+        assertEquals(tree.root.hashCode(), sameStructure.root.hashCode());
+    }
+
+    static MutableNode<Integer> chain(int length) {
+        MutableNode<Integer> root = new MutableNode<>(0);
+        MutableNode<Integer> node = root;
+        for (int i = 1; i < length; ++i) {
+            MutableNode<Integer> child = new MutableNode<>(i);
+            node.childrenByDistance.put(1, child);
+            node = child;
+        }
+        return root;
+    }
+
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.List;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import edu.gatech.gtri.stringmetric.DamerauLevenshteinDistance;
+import org.testng.annotations.Test;
+
+import static edu.gatech.gtri.bktree.BkTreeSearcher.Match;
+import static edu.gatech.gtri.bktree.SearchTests.assertSameMatches;
+import static edu.gatech.gtri.bktree.SearchTests.randomStrings;
+import static org.testng.Assert.*;
+
+public class OffHeapStringBkTreeTest {
+
+    @Test
+    public void search_should_match_elements_and_materialize_them_as_strings() throws Exception {
+        OffHeapStringBkTree tree = new OffHeapStringBkTree(new LengthDifference());
+        tree.addAll("book", "books", "nook", "bo", "nook", new StringBuilder("nooks"));
+
+        assertEquals(tree.size(), 5);
+        assertEquals(tree.search("hook", 1), ImmutableSet.of(
+            new Match<>("book", 0),
+            new Match<>("books", 1),
+            new Match<>("nook", 0),
+            new Match<>("nooks", 1)
+        ));
+    }
+
+    @Test
+    public void search_should_match_same_elements_as_mutable_tree() throws Exception {
+        Metric<CharSequence> metric = Metrics.charSequenceMetric(new DamerauLevenshteinDistance());
+        MutableBkTree<CharSequence> mutable = new MutableBkTree<>(metric);
+        OffHeapStringBkTree offHeap = new OffHeapStringBkTree(metric, 64);
+
+        List<String> elements = randomStrings(0, 1000, 7, 4);
+        elements.add(500, Strings.repeat("abcd", 25)); // longer than an arena
+        for (String element : elements) {
+            mutable.add(element);
+            offHeap.add(element);
+        }
+        assertEquals(offHeap.size(), mutable.size());
+
+        assertSameMatches(new BkTreeSearcher<>(mutable), offHeap::search);
+    }
+
+    @Test(expectedExceptions = IllegalMetricException.class)
+    public void add_two_elements_with_negative_distance_should_throw() throws Exception {
+        OffHeapStringBkTree tree = new OffHeapStringBkTree(new NegativeOneMetric());
+        tree.add("book");
+        tree.add("nook");
+    }
+
+}
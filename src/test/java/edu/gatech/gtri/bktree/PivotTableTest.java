@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.gatech.gtri.stringmetric.DamerauLevenshteinDistance;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static edu.gatech.gtri.bktree.SearchTests.QUERIES;
+import static edu.gatech.gtri.bktree.SearchTests.assertSameMatches;
+import static edu.gatech.gtri.bktree.SearchTests.randomStrings;
+import static org.testng.Assert.*;
+
+public class PivotTableTest {
+
+    CountingMetric<CharSequence> metric;
+    MutableBkTree<String> tree;
+    BucketedBkTree<String> bucketedTree;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        metric = new CountingMetric<>(new LengthDifference());
+        tree = new MutableBkTree<>(metric);
+        bucketedTree = new BucketedBkTree<>(metric, 4);
+
+        List<String> elements = randomStrings(0, 1000, 9);
+        tree.addAll(elements);
+        bucketedTree.addAll(elements);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void build_with_no_pivots_should_throw() throws Exception {
+        PivotTable.build(tree, 0);
+    }
+
+    @Test
+    public void build_should_choose_at_most_one_pivot_per_node() throws Exception {
+        MutableBkTree<String> tree = new MutableBkTree<>(new LengthDifference());
+        tree.addAll("book", "books");
+        assertEquals(PivotTable.build(tree, 4).getPivots().size(), 2);
+    }
+
+    @Test
+    public void search_with_pivot_table_should_match_same_elements_with_fewer_metric_calls() throws Exception {
+        BkTreeSearcher<String> searcher = new BkTreeSearcher<>(tree);
+        BkTreeSearcher<String> pivotSearcher = new BkTreeSearcher<>(tree, PivotTable.build(tree, 2));
+
+        assertSameMatches(searcher, pivotSearcher::search);
+
+        int calls = 0;
+        int pivotCalls = 0;
+        for (int maxDistance = 0; maxDistance <= SearchTests.MAX_DISTANCE; ++maxDistance) {
+            calls += searchCalls(metric, searcher, maxDistance);
+            pivotCalls += searchCalls(metric, pivotSearcher, maxDistance);
+        }
+        assertTrue(pivotCalls < calls, pivotCalls + " metric calls with pivots, " + calls + " without");
+    }
+
+    @Test
+    public void search_bucketed_tree_with_pivot_table_should_match_same_elements() throws Exception {
+        BkTreeSearcher<String> pivotSearcher = new BkTreeSearcher<>(bucketedTree, PivotTable.build(bucketedTree, 3));
+        assertSameMatches(new BkTreeSearcher<>(tree), pivotSearcher::search);
+    }
+
+    @Test
+    public void search_with_edit_distance_should_make_fewer_metric_calls_besides_pivot_distances() throws Exception {
+        CountingMetric<CharSequence> metric =
+            new CountingMetric<>(Metrics.charSequenceMetric(new DamerauLevenshteinDistance()));
+        MutableBkTree<String> tree = new MutableBkTree<>(metric);
+        tree.addAll(randomStrings(0, 5000, 10, 26));
+
+        int pivotCount = 2;
+        BkTreeSearcher<String> searcher = new BkTreeSearcher<>(tree);
+        BkTreeSearcher<String> pivotSearcher = new BkTreeSearcher<>(tree, PivotTable.build(tree, pivotCount));
+
+        for (int maxDistance = 0; maxDistance <= 1; ++maxDistance) {
+            int calls = searchCalls(metric, searcher, maxDistance);
+            int treeCalls = searchCalls(metric, pivotSearcher, maxDistance) - pivotCount * QUERIES.length;
+
+            assertTrue(treeCalls < calls, treeCalls + " metric calls besides pivot distances with maxDistance "
+                + maxDistance + ", " + calls + " without pivots");
+        }
+
+        int calls = searchCalls(metric, searcher, 1);
+        int pivotCalls = searchCalls(metric, pivotSearcher, 1);
+        assertTrue(pivotCalls < calls, pivotCalls + " metric calls with pivots, " + calls + " without");
+    }
+
+    @Test
+    public void search_should_visit_nodes_added_after_pivot_table_was_built() throws Exception {
+        PivotTable<String> pivotTable = PivotTable.build(tree, 2);
+        tree.add("abcdefghijk");
+
+        assertEquals(
+            new BkTreeSearcher<>(tree, pivotTable).search("abcdefghij", 1),
+            new BkTreeSearcher<>(tree).search("abcdefghij", 1));
+    }
+
+    @Test
+    public void search_with_distances_too_long_for_shorts_should_match_same_elements() throws Exception {
+        char[] chars = new char[40000];
+        Arrays.fill(chars, 'a');
+        tree.add(new String(chars));
+
+        BkTreeSearcher<String> searcher = new BkTreeSearcher<>(tree);
+        BkTreeSearcher<String> pivotSearcher = new BkTreeSearcher<>(tree, PivotTable.build(tree, 3));
+
+        for (String query : new String[] {"", "abc", new String(chars, 0, 39999)}) {
+            for (int maxDistance = 0; maxDistance <= 3; ++maxDistance) {
+                assertEquals(pivotSearcher.search(query, maxDistance), searcher.search(query, maxDistance));
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void table_length_past_array_limit_should_throw() throws Exception {
+        PivotTable.tableLength(50000000, 43);
+    }
+
+    @Test
+    public void row_index_capacity_should_keep_a_quarter_of_slots_free() throws Exception {
+        assertEquals(PivotTable.rowIndexCapacity(0), 2);
+        assertEquals(PivotTable.rowIndexCapacity(3), 8);
+        assertEquals(PivotTable.rowIndexCapacity(6), 16);
+        assertEquals(PivotTable.rowIndexCapacity(50000000), 1 << 26);
+        assertEquals(PivotTable.rowIndexCapacity((1 << 30) / 4 * 3 - 1), 1 << 30);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void row_index_capacity_past_array_limit_should_throw() throws Exception {
+        PivotTable.rowIndexCapacity(1 << 30);
+    }
+
+    /** Returns the number of metric calls made searching for each of {@link SearchTests#QUERIES}. */
+    static int searchCalls(CountingMetric<?> metric, BkTreeSearcher<String> searcher, int maxDistance) {
+        metric.calls = 0;
+        for (String query : QUERIES) {
+            searcher.search(query, maxDistance);
+        }
+        return metric.calls;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static edu.gatech.gtri.bktree.BkTreeSearcher.Match;
+import static edu.gatech.gtri.bktree.SearchTests.randomStrings;
+import static org.testng.Assert.*;
+
+public class QueryCostEstimatorTest {
+
+    CountingMetric<CharSequence> metric;
+    MutableBkTree<String> tree;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        metric = new CountingMetric<>(new LengthDifference());
+        tree = new MutableBkTree<>(metric);
+        tree.addAll(randomStrings(0, 1000, 19));
+    }
+
+    @Test
+    public void estimated_visited_fraction_should_grow_with_distance_up_to_every_element() throws Exception {
+        QueryCostEstimator<String> estimator = QueryCostEstimator.build(tree, 25);
+
+        double previous = 0;
+        for (int maxDistance = 0; maxDistance <= 25; ++maxDistance) {
+            double fraction = estimator.estimateVisitedFraction(maxDistance);
+            assertTrue(fraction >= previous && fraction <= 1, "fraction " + fraction);
+            previous = fraction;
+        }
+        assertEquals(estimator.estimateVisitedFraction(20), 1.0, 1e-9);
+        assertEquals(estimator.estimateMetricCalls(20), tree.size(), 1e-6);
+        assertEquals(estimator.estimateVisitedFraction(26), 1.0);
+    }
+
+    @Test
+    public void estimated_visited_fraction_should_match_actual_fraction_for_sampled_queries() throws Exception {
+        String query = "abcab";
+        QueryCostEstimator<String> estimator = QueryCostEstimator.build(new SingleQueryTree(tree, query), 3, 1, 1);
+
+        for (int maxDistance = 0; maxDistance <= 3; ++maxDistance) {
+            metric.calls = 0;
+            new BkTreeSearcher<>(tree).search(query, maxDistance);
+            assertEquals(estimator.estimateMetricCalls(maxDistance), metric.calls, 1e-6);
+        }
+    }
+
+    @Test
+    public void search_should_scan_linearly_when_cheaper_and_match_same_elements() throws Exception {
+        BkTreeSearcher<String> searcher = new BkTreeSearcher<>(tree);
+        QueryCostEstimator<String> estimator = QueryCostEstimator.build(tree, 20);
+        BkTreeSearcher<String> adaptiveSearcher = new BkTreeSearcher<>(tree, estimator);
+
+        for (int maxDistance = 0; maxDistance <= 20; ++maxDistance) {
+            assertEquals(adaptiveSearcher.search("abcab", maxDistance), searcher.search("abcab", maxDistance));
+        }
+
+        metric.calls = 0;
+        adaptiveSearcher.search("abcab", 20);
+        assertEquals(metric.calls, tree.size());
+    }
+
+    @Test
+    public void search_should_not_scan_stale_elements() throws Exception {
+        BkTreeSearcher<String> adaptiveSearcher = new BkTreeSearcher<>(tree, QueryCostEstimator.build(tree, 20));
+        tree.add("abcabcabcabcabcabcabcabc");
+
+        assertTrue(adaptiveSearcher.search("", 30).contains(new Match<>("abcabcabcabcabcabcabcabc", 24)));
+    }
+
+    @Test
+    public void search_should_not_scan_stale_elements_of_bucketed_tree() throws Exception {
+        BucketedBkTree<String> bucketedTree = new BucketedBkTree<>(metric, 4);
+        bucketedTree.addAll(randomStrings(0, 1000, 3));
+        BkTreeSearcher<String> adaptiveSearcher =
+            new BkTreeSearcher<>(bucketedTree, QueryCostEstimator.build(bucketedTree, 10));
+        bucketedTree.add("dddd");
+
+        assertTrue(adaptiveSearcher.search("dddd", 10).contains(new Match<>("dddd", 0)));
+    }
+
+    @Test
+    public void search_should_not_scan_stale_elements_of_durable_tree() throws Exception {
+        Path directory = Files.createTempDirectory("bk-tree");
+        try (DurableBkTree<String> durableTree =
+                 DurableBkTree.open(directory, metric, ElementSerializers.stringSerializer())) {
+
+            durableTree.addAll(randomStrings(0, 100, 3));
+            BkTreeSearcher<String> adaptiveSearcher =
+                new BkTreeSearcher<>(durableTree, QueryCostEstimator.build(durableTree, 10));
+            durableTree.add("dddd");
+
+            assertTrue(adaptiveSearcher.search("dddd", 10).contains(new Match<>("dddd", 0)));
+        } finally {
+            Files.delete(directory.resolve(DurableBkTree.LOG_FILE_NAME));
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void search_should_not_scan_elements_of_tree_whose_changes_cant_be_detected() throws Exception {
+        BkTree<String> view = new BkTree<String>() {
+            @Override
+            public Metric<? super String> getMetric() {
+                return tree.getMetric();
+            }
+
+            @Override
+            public Node<String> getRoot() {
+                return tree.getRoot();
+            }
+        };
+        BkTreeSearcher<String> adaptiveSearcher = new BkTreeSearcher<>(view, QueryCostEstimator.build(view, 20));
+        tree.add("abcabcabcabcabcabcabcabc");
+
+        assertTrue(adaptiveSearcher.search("", 30).contains(new Match<>("abcabcabcabcabcabcabcabc", 24)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void searcher_with_estimator_for_other_tree_should_throw() throws Exception {
+        new BkTreeSearcher<>(tree, QueryCostEstimator.build(new MutableBkTree<String>(metric), 1));
+    }
+
+    /** A view of a tree whose metric reports every probe as the given query. */
+    static final class SingleQueryTree implements BkTree<String> {
+        final BkTree<String> tree;
+        final String query;
+
+        SingleQueryTree(BkTree<String> tree, String query) {
+            this.tree = tree;
+            this.query = query;
+        }
+
+        @Override
+        public Metric<? super String> getMetric() {
+            final Metric<? super String> metric = tree.getMetric();
+            return new Metric<String>() {
+                @Override
+                public int distance(String x, String y) {
+                    return metric.distance(x, query);
+                }
+            };
+        }
+
+        @Override
+        public Node<String> getRoot() {
+            return tree.getRoot();
+        }
+    }
+
+}
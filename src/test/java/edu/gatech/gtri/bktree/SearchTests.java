@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+import static org.testng.Assert.assertEquals;
+
+/** Helpers for comparing searches over randomly generated strings. */
+final class SearchTests {
+
+    /** Queries compared by {@link #assertSameMatches}. */
+    static final String[] QUERIES = {"", "a", "ab", "abc", "abcd", "abcdef"};
+
+    /** Largest search distance compared by {@link #assertSameMatches}. */
+    static final int MAX_DISTANCE = 3;
+
+    private SearchTests() {}
+
+    /**
+     * Returns the given number of random strings over the letters {@code a}
+     * to {@code c}, each of length at most {@code maxLength}, which may
+     * repeat.
+     */
+    static List<String> randomStrings(long seed, int count, int maxLength) {
+        return randomStrings(seed, count, maxLength, 3);
+    }
+
+    /**
+     * Returns the given number of random strings over the first
+     * {@code letterCount} letters of the alphabet, each of length at most
+     * {@code maxLength}, which may repeat.
+     */
+    static List<String> randomStrings(long seed, int count, int maxLength, int letterCount) {
+        Random random = new Random(seed);
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            char[] chars = new char[random.nextInt(maxLength + 1)];
+            for (int j = 0; j < chars.length; ++j) {
+                chars[j] = (char) ('a' + random.nextInt(letterCount));
+            }
+            strings.add(new String(chars));
+        }
+        return strings;
+    }
+
+    /**
+     * Asserts that the given search matches the same elements as the given
+     * searcher for each of {@link #QUERIES} at every distance up to
+     * {@link #MAX_DISTANCE}.
+     */
+    static void assertSameMatches(
+        BkTreeSearcher<? super String> expected, BiFunction<String, Integer, ? extends Set<?>> actual) {
+
+        for (String query : QUERIES) {
+            for (int maxDistance = 0; maxDistance <= MAX_DISTANCE; ++maxDistance) {
+                assertEquals(actual.apply(query, maxDistance), expected.search(query, maxDistance),
+                    "query `" + query + "`, maxDistance " + maxDistance);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Georgia Tech Applied Research Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.gatech.gtri.bktree;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import static edu.gatech.gtri.bktree.BkTreeSearcher.Match;
+import static edu.gatech.gtri.bktree.SearchTests.assertSameMatches;
+import static edu.gatech.gtri.bktree.SearchTests.randomStrings;
+import static org.testng.Assert.*;
+
+public class SegmentedBkTreeTest {
+
+    @Test
+    public void search_should_match_elements_in_active_tree_and_segments() throws Exception {
+        try (SegmentedBkTree<String> tree = new SegmentedBkTree<>(new LengthDifference(), 2, 2)) {
+            tree.addAll("book", "books", "nook", "bo", "nook");
+
+            assertEquals(tree.search("hook", 1), ImmutableSet.of(
+                new Match<>("book", 0),
+                new Match<>("books", 1),
+                new Match<>("nook", 0)
+            ));
+        }
+    }
+
+    @Test
+    public void search_after_merges_should_match_same_elements_as_single_tree() throws Exception {
+        MutableBkTree<String> single = new MutableBkTree<>(new LengthDifference());
+        SegmentedBkTree<String> segmented = new SegmentedBkTree<>(new LengthDifference(), 8, 2);
+        for (String element : randomStrings(0, 1000, 5)) {
+            single.add(element);
+            segmented.add(element);
+        }
+        segmented.close();
+
+        assertTrue(segmented.getSegmentCount() <= 7, "segment count " + segmented.getSegmentCount());
+        assertSameMatches(new BkTreeSearcher<>(single), segmented::search);
+    }
+
+    @Test
+    public void add_element_held_by_segment_should_not_add_it_again() throws Exception {
+        try (SegmentedBkTree<String> tree = new SegmentedBkTree<>(new LengthDifference(), 2, 4)) {
+            tree.addAll("book", "books", "book", "nook", "books", "nooks", "book");
+
+            assertEquals(tree.getSegmentCount(), 2);
+            assertEquals(tree.size(), 4);
+        }
+    }
+
+    @Test
+    public void close_after_failed_merge_should_throw() throws Exception {
+        SegmentedBkTree<Object> tree = new SegmentedBkTree<>(new NegativeOneMetric(), 1, 2);
+        tree.addAll(new Object(), new Object());
+
+        try {
+            tree.close();
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IllegalMetricException, String.valueOf(e.getCause()));
+        }
+
+        try {
+            tree.add(new Object());
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof IllegalMetricException, String.valueOf(e.getCause()));
+        }
+    }
+
+    @Test
+    public void merger_thread_should_exit_when_idle_without_close() throws Exception {
+        SegmentedBkTree<String> tree = new SegmentedBkTree<>(new LengthDifference(), 1, 2);
+        tree.addAll("a", "ab", "abc", "abcd");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SegmentedBkTree.MERGER_KEEP_ALIVE_SECONDS + 9);
+        while (mergerThreadCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(mergerThreadCount(), 0);
+        assertEquals(tree.size(), 4);
+    }
+
+    private static int mergerThreadCount() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(SegmentedBkTree.MERGER_THREAD_NAME)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+}